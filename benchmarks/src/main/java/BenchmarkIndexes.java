@@ -0,0 +1,134 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Indexes and queries the benchmarks run on: the bundled {@code term.idx}, or synthetic indexes whose posting list
+ * lengths follow Zipf's law like the term frequencies of real collections, at scales the bundled index does not
+ * reach.
+ * <p>
+ * An index is named by the {@code index} parameter of a benchmark: {@code zipf:s} generates one with Zipf exponent
+ * s, larger meaning a few long lists and many short ones, and anything else is the path of an index file.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class BenchmarkIndexes {
+    private static final String ZIPF_PREFIX = "zipf:";
+    private static final long SEED = 535;
+
+    private BenchmarkIndexes() {
+    }
+
+    static boolean isSynthetic(String index) {
+        return index.startsWith(ZIPF_PREFIX);
+    }
+
+    /**
+     * @param index     {@code zipf:s} or the path of an index file
+     * @param documents number of documents of a synthetic index
+     * @param terms     number of terms of a synthetic index
+     * @return the term dictionary, stored like {@link Index#load(String)} stores it
+     */
+    static Map<String, PostingList> load(String index, int documents, int terms) {
+        if (!isSynthetic(index)) {
+            return Index.load(index);
+        }
+        Map<String, PostingList> map = generate(index, documents, terms);
+        Index.store(map);
+        return map;
+    }
+
+    /**
+     * @param index {@code zipf:s}
+     * @return the synthetic index named, see {@link #zipf(int, int, double)}
+     */
+    static Map<String, PostingList> generate(String index, int documents, int terms) {
+        return zipf(documents, terms, Double.parseDouble(index.substring(ZIPF_PREFIX.length())));
+    }
+
+    /**
+     * Generates posting lists ordered by document ID. The term of rank r, counting from 1, is in about
+     * {@code documents / 4 / r^skew} documents spread uniformly over the document IDs, with frequencies from 1 to 8.
+     *
+     * @return terms {@code t1, t2, ...} in rank order mapped to their posting lists
+     */
+    static Map<String, PostingList> zipf(int documents, int terms, double skew) {
+        Random random = new Random(SEED);
+        Map<String, PostingList> map = new LinkedHashMap<>();
+        for (int rank = 1; rank <= terms; rank++) {
+            int length = Math.max(1, (int) (documents / 4 / Math.pow(rank, skew)));
+            int maxGap = Math.max(1, 2 * documents / length - 1); // gaps average documents / length
+            PostingList postings = new PostingList(length);
+            for (int documentId = random.nextInt(maxGap); documentId < documents;
+                 documentId += 1 + random.nextInt(maxGap)) {
+                postings.add(documentId, 1 + random.nextInt(8));
+            }
+            if (postings.isEmpty()) {
+                postings.add(random.nextInt(documents), 1);
+            }
+            map.put("t" + rank, postings);
+        }
+        return map;
+    }
+
+    /**
+     * Writes a term dictionary in the text index format {@link Index#parseText(String, PostingList.Order)} reads.
+     */
+    static void write(Map<String, PostingList> index, Path indexFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, PostingList> term : index.entrySet()) {
+                writer.write(term.getKey() + "\\c" + term.getValue().size() + "\\m[");
+                for (PostingList.Cursor cursor = term.getValue().cursor(); !cursor.exhausted(); cursor.next()) {
+                    if (cursor.position() > 0) {
+                        writer.write(", ");
+                    }
+                    writer.write(String.format("%07d/%d", cursor.documentId(), cursor.frequency()));
+                }
+                writer.write(']');
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Draws queries whose terms have ranks spread log-uniformly over the dictionary, so that queries mix long and
+     * short posting lists in every proportion instead of almost only drawing the many rare terms.
+     *
+     * @param index      term dictionary
+     * @param count      number of queries
+     * @param queryTerms number of distinct terms of each query
+     * @return the queries
+     */
+    static String[][] queries(Map<String, PostingList> index, int count, int queryTerms) {
+        List<String> byLength = index.entrySet()
+                .stream()
+                .sorted(Comparator.comparingInt((Map.Entry<String, PostingList> e) -> e.getValue().size()).reversed())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        if (byLength.size() < queryTerms) {
+            throw new IllegalArgumentException("Index has fewer than " + queryTerms + " terms");
+        }
+        Random random = new Random(SEED);
+        String[][] queries = new String[count][];
+        for (int i = 0; i < count; i++) {
+            List<String> query = new ArrayList<>(queryTerms);
+            while (query.size() < queryTerms) {
+                String term = byLength.get((int) Math.exp(random.nextDouble() * Math.log(byLength.size())) - 1);
+                if (!query.contains(term)) {
+                    query.add(term);
+                }
+            }
+            queries[i] = query.toArray(new String[0]);
+        }
+        return queries;
+    }
+}
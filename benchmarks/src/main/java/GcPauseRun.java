@@ -0,0 +1,100 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs DAAT AND and OR queries on every core for a while and reports the query latencies and the garbage collection
+ * pauses during the run, then the pause of one full collection. Run it once with the default posting storage and
+ * once with {@code -Dpostings.offheap=true} to compare the heap layouts, for example:
+ * <pre>
+ * java -Xmx4g -cp benchmarks/target/benchmarks.jar GcPauseRun zipf:1.0 10000000 200000 60
+ * java -Xmx4g -Dpostings.offheap=true -cp benchmarks/target/benchmarks.jar GcPauseRun zipf:1.0 10000000 200000 60
+ * </pre>
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class GcPauseRun {
+    private static final int QUERIES = 10000;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 4) {
+            System.err.println("Usage: GcPauseRun <index> <documents> <terms> <seconds> [threads]");
+            System.exit(1);
+        }
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        long seconds = Long.parseLong(args[3]);
+
+        Map<String, PostingList> map = BenchmarkIndexes.load(args[0], Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]));
+        DocumentAtATime documentAtATime = new DocumentAtATime(map);
+        String[][] queries = BenchmarkIndexes.queries(map, QUERIES, 3);
+        System.gc(); // start from a settled heap
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.printf("%s, off heap %s: %,d terms, heap used %,d bytes%n", args[0],
+                Boolean.getBoolean(Index.OFF_HEAP_PROPERTY) ? NativeMemory.get().name() : "false", map.size(),
+                heap.getUsed());
+
+        LatencyHistogram pauses = new LatencyHistogram();
+        listen(pauses);
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong matches = new AtomicLong(); // keeps the results alive until counted
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread worker = new Thread(() -> {
+                for (int query = first; System.nanoTime() < end; query = (query + threads) % QUERIES) {
+                    long start = System.nanoTime();
+                    QueryResult and = documentAtATime.and(queries[query]);
+                    QueryResult or = documentAtATime.or(queries[query]);
+                    latencies.record(System.nanoTime() - start);
+                    matches.addAndGet((and.isFound() ? and.documentIds().length : 0)
+                            + (or.isFound() ? or.documentIds().length : 0));
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        System.out.printf("%,d queries on %d threads in %d s, %,d matches%n", latencies.count(), threads, seconds,
+                matches.get());
+        print("query latency", latencies);
+        print("gc pause", pauses);
+        long start = System.nanoTime();
+        System.gc();
+        System.out.printf("full gc %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Records the duration of every collection, as reported by the collectors, into a histogram.
+     */
+    private static void listen(LatencyHistogram pauses) {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                            (CompositeData) notification.getUserData());
+                    pauses.record(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+                }
+            }, null, null);
+        }
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        System.out.printf("%-14s count %,8d  p50 %8.3f ms  p99 %8.3f ms  p99.9 %8.3f ms  max %8.3f ms  total %,10.1f ms%n",
+                name, histogram.count(), histogram.valueAt(0.5) / 1e6, histogram.valueAt(0.99) / 1e6,
+                histogram.valueAt(0.999) / 1e6, histogram.max() / 1e6, histogram.sum() / 1e6);
+    }
+}
@@ -0,0 +1,35 @@
+import benchmarks.Workloads;
+
+import java.util.Map;
+
+/**
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class LookupWorkload implements Workloads.Lookup {
+    private final DocumentAtATime documentAtATime;
+    private final String[] lookups;
+
+    /**
+     * @param index   see {@link BenchmarkIndexes}
+     * @param lookups number of terms to look up, every eighth one missing from the dictionary
+     */
+    public LookupWorkload(String index, int documents, int terms, int lookups) {
+        Map<String, PostingList> map = BenchmarkIndexes.load(index, documents, terms);
+        this.documentAtATime = new DocumentAtATime(map);
+        this.lookups = new String[lookups];
+        String[][] queries = BenchmarkIndexes.queries(map, lookups, 1);
+        for (int i = 0; i < lookups; i++) {
+            this.lookups[i] = i % 8 == 7 ? queries[i][0] + "-missing" : queries[i][0];
+        }
+    }
+
+    @Override
+    public int lookups() {
+        return lookups.length;
+    }
+
+    @Override
+    public Object postingList(int lookup) {
+        return documentAtATime.postingList(lookups[lookup]);
+    }
+}
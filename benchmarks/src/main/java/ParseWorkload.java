@@ -0,0 +1,44 @@
+import benchmarks.Workloads;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class ParseWorkload implements Workloads.Parse {
+    private final Path indexFile;
+    private final boolean temporary;
+
+    /**
+     * @param index see {@link BenchmarkIndexes}, a synthetic index is written to a temporary file
+     */
+    public ParseWorkload(String index, int documents, int terms) throws IOException {
+        temporary = BenchmarkIndexes.isSynthetic(index);
+        if (temporary) {
+            indexFile = Files.createTempFile("synthetic", ".idx");
+            BenchmarkIndexes.write(BenchmarkIndexes.generate(index, documents, terms), indexFile);
+        } else {
+            indexFile = Paths.get(index);
+        }
+    }
+
+    @Override
+    public Object parseText() throws IOException {
+        return Index.parseText(indexFile.toString(), PostingList.Order.DOCUMENT_ID);
+    }
+
+    @Override
+    public Object parseTextParallel() throws IOException {
+        return Index.parseTextParallel(indexFile.toString(), PostingList.Order.DOCUMENT_ID);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (temporary) {
+            Files.delete(indexFile);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import benchmarks.Workloads;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class QueryWorkload implements Workloads.Query {
+    private final DocumentAtATime documentAtATime;
+    private final TermAtATime termAtATime;
+    private final String[][] queries;
+
+    /**
+     * @param index      see {@link BenchmarkIndexes}
+     * @param queries    number of queries
+     * @param queryTerms number of terms of each query
+     */
+    public QueryWorkload(String index, int documents, int terms, int queries, int queryTerms) {
+        Map<String, PostingList> map = BenchmarkIndexes.load(index, documents, terms);
+        this.documentAtATime = new DocumentAtATime(map);
+        this.termAtATime = new TermAtATime(map);
+        this.queries = BenchmarkIndexes.queries(map, queries, queryTerms);
+        for (String[] query : this.queries) {
+            termAtATime.postingLists(query); // frequency ordered copies are made on first access, not measured
+        }
+    }
+
+    @Override
+    public int queries() {
+        return queries.length;
+    }
+
+    /**
+     * Intersects the posting lists of a query pairwise, shortest first.
+     */
+    @Override
+    public Object intersect(int query) {
+        List<PostingList> postings = documentAtATime.postingLists(queries[query]);
+        postings.sort(Comparator.comparingInt(PostingList::size));
+        PostingList result = postings.get(0);
+        for (int i = 1; i < postings.size() && !result.isEmpty(); i++) {
+            result = result.intersect(postings.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public Object documentAtATimeAnd(int query) {
+        return documentAtATime.and(queries[query]);
+    }
+
+    @Override
+    public Object documentAtATimeOr(int query) {
+        return documentAtATime.or(queries[query]);
+    }
+
+    @Override
+    public Object termAtATimeAnd(int query) {
+        return termAtATime.and(queries[query]);
+    }
+
+    @Override
+    public Object termAtATimeOr(int query) {
+        return termAtATime.or(queries[query]);
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up the posting list of a term with {@code Index.postingList}, one in eight terms missing from the
+ * dictionary.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LookupBenchmark {
+    static final int LOOKUPS = 1024;
+
+    @Param({"zipf:1.0", "term.idx"})
+    public String index;
+
+    @Param("1000000")
+    public int documents;
+
+    @Param("100000")
+    public int terms;
+
+    private Workloads.Lookup workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workloads.create(Workloads.Lookup.class, "LookupWorkload", index, documents, terms, LOOKUPS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void postingList(Blackhole blackhole) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            blackhole.consume(workload.postingList(i));
+        }
+    }
+}
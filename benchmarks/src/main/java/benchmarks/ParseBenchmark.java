@@ -0,0 +1,63 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a text index file with {@code Index.parseText} and {@code Index.parseTextParallel}. A synthetic index is
+ * written to a temporary file first.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParseBenchmark {
+    @Param({"zipf:1.0", "term.idx"})
+    public String index;
+
+    @Param("1000000")
+    public int documents;
+
+    @Param("100000")
+    public int terms;
+
+    private Workloads.Parse workload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workload = Workloads.create(Workloads.Parse.class, "ParseWorkload", index, documents, terms);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object parseText() throws IOException {
+        return workload.parseText();
+    }
+
+    @Benchmark
+    public Object parseTextParallel() throws IOException {
+        return workload.parseTextParallel();
+    }
+}
@@ -0,0 +1,94 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AND and OR evaluation by pairwise {@code PostingList.intersect}, {@code DocumentAtATime} and {@code TermAtATime},
+ * over a fixed batch of queries with the given number of terms. The skew of posting list lengths is that of the
+ * index, {@code zipf:s} for a synthetic index with Zipf exponent s.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+    static final int QUERIES = 64;
+
+    @Param({"zipf:0.8", "zipf:1.0", "zipf:1.2", "term.idx"})
+    public String index;
+
+    @Param("1000000")
+    public int documents;
+
+    @Param("100000")
+    public int terms;
+
+    @Param({"2", "4", "8"})
+    public int queryTerms;
+
+    private Workloads.Query workload;
+
+    @Setup
+    public void setUp() {
+        workload = Workloads.create(Workloads.Query.class, "QueryWorkload", index, documents, terms, QUERIES,
+                queryTerms);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void intersect(Blackhole blackhole) {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume(workload.intersect(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void documentAtATimeAnd(Blackhole blackhole) {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume(workload.documentAtATimeAnd(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void documentAtATimeOr(Blackhole blackhole) {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume(workload.documentAtATimeOr(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void termAtATimeAnd(Blackhole blackhole) {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume(workload.termAtATimeAnd(i));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void termAtATimeOr(Blackhole blackhole) {
+        for (int i = 0; i < QUERIES; i++) {
+            blackhole.consume(workload.termAtATimeOr(i));
+        }
+    }
+}
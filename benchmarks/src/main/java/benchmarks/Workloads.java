@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Operations the benchmarks measure. JMH only runs benchmarks declared in a package, and code in a package cannot
+ * refer to the engine's classes in the unnamed package, so each workload is implemented next to the engine and
+ * created reflectively here. The benchmarks call it through a single implementation, which the JIT inlines.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public final class Workloads {
+    private Workloads() {
+    }
+
+    /**
+     * Parsing a text index file.
+     */
+    public interface Parse extends AutoCloseable {
+        Object parseText() throws IOException;
+
+        Object parseTextParallel() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Looking up posting lists of a fixed sequence of terms.
+     */
+    public interface Lookup {
+        int lookups();
+
+        Object postingList(int lookup);
+    }
+
+    /**
+     * Evaluating a fixed batch of queries.
+     */
+    public interface Query {
+        int queries();
+
+        Object intersect(int query);
+
+        Object documentAtATimeAnd(int query);
+
+        Object documentAtATimeOr(int query);
+
+        Object termAtATimeAnd(int query);
+
+        Object termAtATimeOr(int query);
+    }
+
+    /**
+     * @param type           workload interface
+     * @param implementation name of the class in the unnamed package implementing it
+     * @param arguments      constructor arguments, of types String or Integer passed as int
+     */
+    static <T> T create(Class<T> type, String implementation, Object... arguments) {
+        Class<?>[] parameterTypes = new Class<?>[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            parameterTypes[i] = arguments[i] instanceof Integer ? int.class : arguments[i].getClass();
+        }
+        try {
+            return type.cast(Class.forName(implementation).getConstructor(parameterTypes).newInstance(arguments));
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new IllegalStateException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create workload " + implementation, e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Native memory from the incubating foreign memory API of JDK 17. Each allocation is a native segment aligned to a
+ * cache line in an implicit scope, which the JVM frees once the segment and every buffer over it are unreachable.
+ * <p>
+ * Compiled separately, as it needs {@code --add-modules jdk.incubator.foreign}:
+ * <pre>
+ * javac -d out src/*.java
+ * javac --release 17 --add-modules jdk.incubator.foreign -cp out -d out src-foreign/*.java
+ * java --add-modules jdk.incubator.foreign -Dpostings.offheap=true -cp out CSE535Assignment ...
+ * </pre>
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class ForeignNativeMemory implements NativeMemory {
+    private static final long ALIGNMENT = 64; // a cache line
+
+    ForeignNativeMemory() {
+        ResourceScope.globalScope(); // links the incubator module now, so a JVM without it falls back to direct buffers
+    }
+
+    @Override
+    public ByteBuffer allocate(int bytes) {
+        return MemorySegment.allocateNative(bytes, ALIGNMENT, ResourceScope.newImplicitScope()).asByteBuffer();
+    }
+
+    @Override
+    public String name() {
+        return "foreign";
+    }
+}
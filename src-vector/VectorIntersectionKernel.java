@@ -0,0 +1,90 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Merge kernel on the incubating Vector API. Intersection compares a block of a against every rotation of a block
+ * of b (the all-pairs shuffle-compare of Schlegel et al. and Lemire et al.), then moves past whichever block ends
+ * lower. Union counts in one vector compare how many document IDs of one side come before the other side's head,
+ * and copies that run at once.
+ * <p>
+ * Compiled separately, as it needs {@code --add-modules jdk.incubator.vector}:
+ * <pre>
+ * javac -d out src/*.java
+ * javac --add-modules jdk.incubator.vector -cp out -d out src-vector/*.java
+ * java --add-modules jdk.incubator.vector -cp out CSE535Assignment ...
+ * </pre>
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class VectorIntersectionKernel implements IntersectionKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private final VectorShuffle<Integer>[] rotations;
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) // no generic array creation
+    VectorIntersectionKernel() {
+        rotations = new VectorShuffle[LANES];
+        for (int r = 0; r < LANES; r++) {
+            rotations[r] = VectorShuffle.iota(SPECIES, r, 1, true);
+        }
+    }
+
+    @Override
+    public int intersect(int[] a, int aSize, int[] b, int bSize, int[] positions) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i + LANES <= aSize && j + LANES <= bSize) {
+            IntVector va = IntVector.fromArray(SPECIES, a, i);
+            IntVector vb = IntVector.fromArray(SPECIES, b, j);
+            VectorMask<Integer> matches = va.eq(vb);
+            for (int r = 1; r < LANES; r++) {
+                matches = matches.or(va.eq(vb.rearrange(rotations[r])));
+            }
+            for (long lanes = matches.toLong(); lanes != 0; lanes &= lanes - 1) {
+                positions[count++] = i + Long.numberOfTrailingZeros(lanes);
+            }
+            int aLast = a[i + LANES - 1];
+            int bLast = b[j + LANES - 1];
+            if (aLast <= bLast) {
+                i += LANES;
+            }
+            if (bLast <= aLast) {
+                j += LANES;
+            }
+        }
+        return ScalarIntersectionKernel.intersect(a, i, aSize, b, j, bSize, positions, count);
+    }
+
+    @Override
+    public int union(int[] a, int aSize, int[] b, int bSize, int[] positions) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i + LANES <= aSize && j + LANES <= bSize) {
+            if (a[i] < b[j]) { // a run of a below b[j], at least one long
+                int end = i + IntVector.fromArray(SPECIES, a, i).lt(b[j]).trueCount();
+                while (i < end) {
+                    positions[count++] = i++;
+                }
+            } else if (b[j] < a[i]) {
+                int end = j + IntVector.fromArray(SPECIES, b, j).lt(a[i]).trueCount();
+                while (j < end) {
+                    positions[count++] = ~j++;
+                }
+            } else {
+                positions[count++] = i++;
+                ++j;
+            }
+        }
+        return ScalarIntersectionKernel.union(a, i, aSize, b, j, bSize, positions, count);
+    }
+
+    @Override
+    public String name() {
+        return "vector " + SPECIES;
+    }
+}
@@ -0,0 +1,102 @@
+import java.util.Arrays;
+
+/**
+ * Primitive open-addressing map from document ID to a match count and a score, used by term-at-a-time
+ * evaluation. Sized once up front so it never rehashes. Document IDs must be non-negative.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class Accumulator {
+    private static final int EMPTY = -1;
+
+    private final int[] documentIds;
+    private final int[] counts;
+    private final int[] scores;
+    private final int mask;
+    private int size;
+    private int comparisons;
+
+    /**
+     * @param maximumSize maximum number of distinct document IDs that will be added
+     */
+    Accumulator(int maximumSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, maximumSize) * 2 - 1) * 2; // load factor at most 0.5
+        documentIds = new int[capacity];
+        counts = new int[capacity];
+        scores = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(documentIds, EMPTY);
+    }
+
+    /**
+     * Adds a document if absent, then counts one more match and adds to its score.
+     */
+    void add(int documentId, int score) {
+        int slot = slot(documentId);
+        if (documentIds[slot] == EMPTY) {
+            documentIds[slot] = documentId;
+            ++size;
+        }
+        ++counts[slot];
+        scores[slot] += score;
+    }
+
+    /**
+     * Counts one more match for a document only if it is present and has matched exactly {@code count} times.
+     *
+     * @return true if the document was counted
+     */
+    boolean increment(int documentId, int count, int score) {
+        int slot = slot(documentId);
+        if (documentIds[slot] != EMPTY && counts[slot] == count) {
+            ++counts[slot];
+            scores[slot] += score;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param count minimum number of matches
+     * @return documents matched at least {@code count} times with their scores, in no particular order
+     */
+    PostingList collect(int count) {
+        PostingList result = new PostingList(size);
+        for (int slot = 0; slot < documentIds.length; slot++) {
+            if (documentIds[slot] != EMPTY && counts[slot] >= count) {
+                result.add(documentIds[slot], scores[slot]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of document ID comparisons made while probing
+     */
+    int comparisons() {
+        return comparisons;
+    }
+
+    /**
+     * @return the slot holding the document, or the empty slot where it would be inserted
+     */
+    private int slot(int documentId) {
+        int slot = mix(documentId) & mask;
+        while (true) {
+            int current = documentIds[slot];
+            if (current == EMPTY) {
+                return slot;
+            }
+            ++comparisons;
+            if (current == documentId) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static int mix(int documentId) {
+        int hash = documentId * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
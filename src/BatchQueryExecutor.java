@@ -0,0 +1,154 @@
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates a whole batch of queries. Every distinct term of the batch is looked up in the index once, and the
+ * queries are evaluated in parallel on the common fork-join pool. The results of each query are logged straight to
+ * the output, in input order, as soon as it and every query before it are done, with at most a few queries per
+ * thread in flight, so the output of a batch of any size takes bounded memory.
+ * Repeated queries are answered from a {@link QueryCache} when it is enabled. When {@link #BOOLEAN_PROPERTY} is set,
+ * a query using Boolean operators is evaluated as a whole by a {@link QueryPlanner} instead, with its plan logged
+ * first when {@link #EXPLAIN_PROPERTY} is set.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class BatchQueryExecutor {
+    /**
+     * System property that, when true, logs the plan of every Boolean query before its result.
+     */
+    public static final String EXPLAIN_PROPERTY = "query.explain";
+
+    /**
+     * System property that, when true, evaluates query lines using Boolean operators with the
+     * {@link QueryPlanner}. Otherwise every line is a plain list of terms, as AND, OR and NOT are terms of the index
+     * too.
+     */
+    public static final String BOOLEAN_PROPERTY = "query.boolean";
+
+    private final Map<String, PostingList> index;
+    private final QueryCache cache;
+
+    public BatchQueryExecutor(Map<String, PostingList> index, QueryCache cache) {
+        this.index = index;
+        this.cache = cache;
+    }
+
+    /**
+     * Runs getPostings for every term, then TAAT AND, TAAT OR, DAAT AND and DAAT OR for every query of plain terms,
+     * and the Boolean query itself for every query using operators when {@link #BOOLEAN_PROPERTY} is set.
+     *
+     * @param queries query terms, one array per query
+     * @param output  receives the output of all queries in input order
+     */
+    public void execute(List<String[]> queries, Logger output) {
+        Map<String, PostingList> fetched = fetch(queries);
+        DocumentAtATime documentAtATime = new DocumentAtATime(fetched);
+        TermAtATime termAtATime = new TermAtATime(fetched); // sorts each fetched term by frequency once
+        QueryPlanner planner = new QueryPlanner(index); // NOT needs every document, not just the fetched terms
+        boolean booleanQueries = Boolean.getBoolean(BOOLEAN_PROPERTY);
+        boolean explain = Boolean.getBoolean(EXPLAIN_PROPERTY);
+
+        int inFlight = 4 * ForkJoinPool.getCommonPoolParallelism();
+        Deque<CompletableFuture<Consumer<Logger>>> pending = new ArrayDeque<>(inFlight);
+        for (String[] queryTerms : queries) {
+            if (pending.size() == inFlight) {
+                pending.poll().join().accept(output); // the oldest query, keeps input order
+            }
+            pending.add(CompletableFuture.supplyAsync(() -> {
+                String query = String.join(" ", queryTerms);
+                if (booleanQueries && QueryNode.isBoolean(query)) {
+                    return booleanQuery(planner, query, explain);
+                }
+
+                QueryResult taatAnd = cache.and(termAtATime, queryTerms);
+                QueryResult taatOr = cache.or(termAtATime, queryTerms);
+                QueryResult daatAnd = cache.and(documentAtATime, queryTerms);
+                QueryResult daatOr = cache.or(documentAtATime, queryTerms);
+                return logger -> {
+                    for (String term : queryTerms) {
+                        CSE535Assignment.getPostings(documentAtATime, termAtATime, term, logger); // getPostings
+                    }
+
+                    logger.log(taatAnd); // TAAT AND
+                    logger.log(taatOr); // TAAT OR
+
+                    logger.log(daatAnd); // DAAT AND
+                    logger.log(daatOr); // DAAT OR
+                };
+            }));
+        }
+        while (!pending.isEmpty()) {
+            pending.poll().join().accept(output);
+        }
+    }
+
+    /**
+     * Logs a Boolean query in the assignment's output format, or why it could not be parsed.
+     */
+    static void booleanQuery(QueryPlanner planner, String query, boolean explain, Logger logger) {
+        booleanQuery(planner, query, explain).accept(logger);
+    }
+
+    /**
+     * Evaluates a Boolean query.
+     *
+     * @return logs the result, or why the query could not be parsed
+     */
+    private static Consumer<Logger> booleanQuery(QueryPlanner planner, String query, boolean explain) {
+        try {
+            List<String> plan = explain ? planner.plan(QueryNode.parse(query)).explain() : Collections.emptyList();
+            QueryResult result = planner.evaluate(query);
+            return logger -> {
+                if (explain) {
+                    logger.function("explain", query);
+                    plan.forEach(logger::log);
+                }
+                logger.log(result);
+            };
+        } catch (IllegalArgumentException e) {
+            return logger -> {
+                if (explain) {
+                    logger.function("explain", query);
+                }
+                logger.function(QueryPlanner.FUNCTION, query);
+                logger.log("invalid query: " + e.getMessage());
+            };
+        }
+    }
+
+    /**
+     * @return the posting lists of every distinct term in the batch that exists in the index, and of every term a
+     * prefix query term such as {@code perel*} expands to
+     */
+    private Map<String, PostingList> fetch(List<String[]> queries) {
+        Set<String> seen = new HashSet<>();
+        Map<String, PostingList> fetched = new HashMap<>();
+        TermDictionary dictionary = null; // sorted terms for prefix queries, built on first use
+        for (String[] queryTerms : queries) {
+            for (String term : queryTerms) {
+                if (seen.add(term)) {
+                    PostingList postings = index.get(term);
+                    if (postings != null) {
+                        fetched.put(term, postings);
+                    } else if (Index.isPrefix(term)) {
+                        dictionary = dictionary == null ? TermDictionary.of(index) : dictionary;
+                        Pair<Integer, Integer> ordinals = dictionary.prefix(term.substring(0, term.length() - 1));
+                        for (int ordinal = ordinals.first(); ordinal < ordinals.second(); ordinal++) {
+                            fetched.put(dictionary.term(ordinal), dictionary.postings(ordinal));
+                        }
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableMap(fetched);
+    }
+}
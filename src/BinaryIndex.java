@@ -0,0 +1,294 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only term dictionary served from a memory-mapped binary index file.
+ * <p>
+ * Layout (all ints little-endian):
+ * <pre>
+ * header   : magic, version, termCount, termBytesLength
+ * entries  : termCount x (termOffset, termLength, postingsOffset, size), sorted by unsigned UTF-8 term bytes
+ * order    : termCount x entry number, in the order terms appeared in the text index
+ * terms    : termBytesLength bytes of UTF-8, padded to a multiple of 4
+ * postings : per term, size document IDs followed by size frequencies, ordered by increasing document ID
+ * </pre>
+ * Posting lists are views into the mapped file and are never copied. Word positions of a positional text index are
+ * not carried over.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class BinaryIndex extends AbstractMap<String, PostingList> {
+    private static final int MAGIC = 0x49455142; // "BQEI"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+    private static final int ENTRY_INTS = 4;
+
+    private final ByteBuffer buffer;
+    private final IntBuffer entries;
+    private final IntBuffer order;
+    private final int termsStart;
+    private final IntBuffer postings;
+    private final int termCount;
+
+    private BinaryIndex(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a binary index of version " + VERSION);
+        }
+        termCount = this.buffer.getInt(8);
+        int termBytesLength = this.buffer.getInt(12);
+
+        int entriesStart = HEADER_BYTES;
+        int orderStart = entriesStart + termCount * ENTRY_INTS * Integer.BYTES;
+        termsStart = orderStart + termCount * Integer.BYTES;
+        int postingsStart = align(termsStart + termBytesLength);
+
+        entries = slice(entriesStart, orderStart).asIntBuffer();
+        order = slice(orderStart, termsStart).asIntBuffer();
+        postings = slice(postingsStart, this.buffer.capacity()).asIntBuffer();
+    }
+
+    /**
+     * Memory-maps a binary index file.
+     *
+     * @param indexFile binary index written by {@link #write(Map, Path)}
+     * @return a read-only term dictionary over the mapped file
+     * @throws IOException when the file cannot be mapped
+     */
+    public static BinaryIndex map(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinaryIndex(buffer);
+        }
+    }
+
+    /**
+     * @param indexFile any index file
+     * @return true if the file starts with the binary index magic number
+     * @throws IOException when the file cannot be read
+     */
+    public static boolean isBinary(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read until the magic number is complete or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Writes a term dictionary in binary index format.
+     *
+     * @param index     terms in text index order mapped to posting lists ordered by document ID
+     * @param indexFile binary index file to create or overwrite
+     * @throws IOException when the file cannot be written
+     */
+    public static void write(Map<String, PostingList> index, Path indexFile) throws IOException {
+        int termCount = index.size();
+        byte[][] terms = new byte[termCount][];
+        PostingList[] postingLists = new PostingList[termCount];
+        int termBytesLength = 0;
+        long postingInts = 0;
+        int ordinal = 0;
+        for (Map.Entry<String, PostingList> entry : index.entrySet()) {
+            terms[ordinal] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            postingLists[ordinal] = entry.getValue();
+            termBytesLength += terms[ordinal].length;
+            postingInts += 2L * entry.getValue().size();
+            ++ordinal;
+        }
+
+        Integer[] sorted = new Integer[termCount]; // ordinals sorted by term bytes
+        for (int i = 0; i < termCount; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, Comparator.comparing((Integer i) -> terms[i], Arrays::compareUnsigned));
+
+        int termsStart = HEADER_BYTES + termCount * (ENTRY_INTS + 1) * Integer.BYTES;
+        int postingsStart = align(termsStart + termBytesLength);
+        long fileSize = postingsStart + postingInts * Integer.BYTES;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Binary index would exceed " + Integer.MAX_VALUE + " bytes");
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(termCount).putInt(termBytesLength);
+
+            int[] entryNumbers = new int[termCount]; // ordinal -> entry number
+            int termOffset = 0;
+            int postingsOffset = 0;
+            for (int entryNumber = 0; entryNumber < termCount; entryNumber++) {
+                int i = sorted[entryNumber];
+                entryNumbers[i] = entryNumber;
+                buffer.putInt(termOffset).putInt(terms[i].length).putInt(postingsOffset).putInt(postingLists[i].size());
+                termOffset += terms[i].length;
+                postingsOffset += 2 * postingLists[i].size();
+            }
+            for (int entryNumber : entryNumbers) {
+                buffer.putInt(entryNumber);
+            }
+            for (Integer i : sorted) {
+                buffer.put(terms[i]);
+            }
+            buffer.position(postingsStart);
+            for (Integer i : sorted) {
+                PostingList postingList = postingLists[i];
+                for (PostingList.Cursor cursor = postingList.cursor(); !cursor.exhausted(); cursor.next()) {
+                    buffer.putInt(cursor.documentId());
+                }
+                for (PostingList.Cursor cursor = postingList.cursor(); !cursor.exhausted(); cursor.next()) {
+                    buffer.putInt(cursor.frequency());
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    @Override
+    public PostingList get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int entryNumber = find(((String) key).getBytes(StandardCharsets.UTF_8));
+        return entryNumber < 0 ? null : postingList(entryNumber);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && find(((String) key).getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return termCount;
+    }
+
+    /**
+     * Iterates entries in the order terms appeared in the text index.
+     */
+    @Override
+    public Set<Entry<String, PostingList>> entrySet() {
+        return new AbstractSet<Entry<String, PostingList>>() {
+            @Override
+            public Iterator<Entry<String, PostingList>> iterator() {
+                return new Iterator<Entry<String, PostingList>>() {
+                    private int ordinal = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return ordinal < termCount;
+                    }
+
+                    @Override
+                    public Entry<String, PostingList> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int entryNumber = order.get(ordinal++);
+                        return new SimpleImmutableEntry<>(term(entryNumber), postingList(entryNumber));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return termCount;
+            }
+        };
+    }
+
+    private int find(byte[] term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mid, term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int entryNumber, byte[] term) {
+        int offset = termsStart + entries.get(entryNumber * ENTRY_INTS);
+        int length = entries.get(entryNumber * ENTRY_INTS + 1);
+        int common = Math.min(length, term.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Byte.toUnsignedInt(buffer.get(offset + i)) - Byte.toUnsignedInt(term[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - term.length;
+    }
+
+    private String term(int entryNumber) {
+        byte[] term = new byte[entries.get(entryNumber * ENTRY_INTS + 1)];
+        buffer.duplicate().position(termsStart + entries.get(entryNumber * ENTRY_INTS)).get(term);
+        return new String(term, StandardCharsets.UTF_8);
+    }
+
+    private PostingList postingList(int entryNumber) {
+        int offset = entries.get(entryNumber * ENTRY_INTS + 2);
+        int size = entries.get(entryNumber * ENTRY_INTS + 3);
+        IntBuffer documentIds = postings.duplicate().position(offset).limit(offset + size).slice();
+        IntBuffer frequencies = postings.duplicate().position(offset + size).limit(offset + 2 * size).slice();
+        return new PostingList(documentIds, frequencies, size);
+    }
+
+    private ByteBuffer slice(int from, int to) {
+        return buffer.duplicate().position(from).limit(to).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int align(int offset) {
+        return (offset + Integer.BYTES - 1) & -Integer.BYTES;
+    }
+
+    /**
+     * Converts a text index into the binary index format.
+     *
+     * @param args text index file and binary index file
+     */
+    public static void main(String[] args) {
+        if (args.length == 2) {
+            StopWatch stopWatch = StopWatch.createStarted();
+            try {
+                write(Index.parseText(args[0], PostingList.Order.DOCUMENT_ID), Paths.get(args[1]));
+            } catch (IOException e) {
+                System.err.println("IOException when writing binary index: " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+            stopWatch.stop();
+            System.out.println("Converted " + args[0] + " to " + args[1] + " in " + stopWatch.elapsedSeconds() + " seconds.");
+        } else {
+            System.err.println("Usage: BinaryIndex <text index file> <binary index file>");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Posting storage for dense terms as a bitmap over the span of their document IDs, with the frequencies kept in
+ * document ID order. Each 64-bit word also records how many postings come before it, so the position of a document
+ * ID is a table lookup plus one bit count.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class BitmapPostings {
+    /**
+     * Fewest postings worth a bitmap, below that a sorted list is cheaper to walk than the words.
+     */
+    static final int MIN_SIZE = 32;
+    /**
+     * A list becomes a bitmap when more than one in this many document IDs of its span is set, the cut-over
+     * Roaring uses between its array and bitmap containers.
+     */
+    static final int MAX_SPAN_PER_POSTING = 16;
+
+    private final int base; // document ID of bit 0, a multiple of 64
+    private final long[] words;
+    private final int[] wordRanks; // postings before each word
+    private final int[] frequencies;
+
+    private BitmapPostings(int base, long[] words, int[] wordRanks, int[] frequencies) {
+        this.base = base;
+        this.words = words;
+        this.wordRanks = wordRanks;
+        this.frequencies = frequencies;
+    }
+
+    /**
+     * @param postings posting list ordered by increasing document ID
+     * @return true if the postings are dense enough to be cheaper as a bitmap
+     */
+    static boolean isDense(PostingList postings) {
+        int size = postings.size();
+        if (size < MIN_SIZE) {
+            return false;
+        }
+        long span = (long) postings.documentId(size - 1) - postings.documentId(0) + 1;
+        return span < (long) size * MAX_SPAN_PER_POSTING;
+    }
+
+    /**
+     * @param postings non-empty posting list ordered by increasing, distinct document IDs
+     * @return the postings as a bitmap
+     */
+    static BitmapPostings encode(PostingList postings) {
+        int size = postings.size();
+        int base = postings.documentId(0) & ~63;
+        long[] words = new long[((postings.documentId(size - 1) - base) >>> 6) + 1];
+        int[] frequencies = new int[size];
+        int previous = -1;
+        int i = 0;
+        for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next(), i++) {
+            int documentId = cursor.documentId();
+            if (documentId <= previous) {
+                throw new IllegalArgumentException("Postings must be ordered by increasing, distinct document ID");
+            }
+            words[(documentId - base) >>> 6] |= 1L << (documentId - base);
+            frequencies[i] = cursor.frequency();
+            previous = documentId;
+        }
+        return new BitmapPostings(base, words, ranks(words), frequencies);
+    }
+
+    /**
+     * Builds a bitmap from words that were already combined, taking each frequency from the first of the sources
+     * holding that document ID.
+     */
+    private static BitmapPostings of(int base, long[] words, BitmapPostings[] sources) {
+        int[] wordRanks = ranks(words);
+        int size = words.length == 0 ? 0 : wordRanks[words.length - 1] + Long.bitCount(words[words.length - 1]);
+        int[] frequencies = new int[size];
+        int i = 0;
+        for (int word = 0; word < words.length; word++) {
+            for (long bits = words[word]; bits != 0; bits &= bits - 1) {
+                int documentId = base + (word << 6) + Long.numberOfTrailingZeros(bits);
+                for (BitmapPostings source : sources) {
+                    if (source.contains(documentId)) {
+                        frequencies[i] = source.frequencies[source.rank(documentId)];
+                        break;
+                    }
+                }
+                ++i;
+            }
+        }
+        return new BitmapPostings(base, words, wordRanks, frequencies);
+    }
+
+    private static int[] ranks(long[] words) {
+        int[] wordRanks = new int[words.length];
+        int rank = 0;
+        for (int word = 0; word < words.length; word++) {
+            wordRanks[word] = rank;
+            rank += Long.bitCount(words[word]);
+        }
+        return wordRanks;
+    }
+
+    /**
+     * Intersects bitmaps one 64-bit word at a time over the span they share.
+     *
+     * @param bitmaps bitmaps to intersect, at least one
+     * @return the intersection, frequencies taken from the first bitmap
+     */
+    static BitmapPostings and(BitmapPostings... bitmaps) {
+        int from = Integer.MIN_VALUE;
+        int to = Integer.MAX_VALUE; // exclusive document ID bounds
+        for (BitmapPostings bitmap : bitmaps) {
+            from = Math.max(from, bitmap.base);
+            to = Math.min(to, bitmap.end());
+        }
+        long[] words = new long[Math.max(0, (to - from) >> 6)];
+        if (words.length > 0) {
+            System.arraycopy(bitmaps[0].words, (from - bitmaps[0].base) >>> 6, words, 0, words.length);
+            for (int b = 1; b < bitmaps.length; b++) {
+                BitmapPostings bitmap = bitmaps[b];
+                int offset = (from - bitmap.base) >>> 6;
+                for (int word = 0; word < words.length; word++) {
+                    words[word] &= bitmap.words[offset + word];
+                }
+            }
+        }
+        return of(from, words, new BitmapPostings[]{bitmaps[0]});
+    }
+
+    /**
+     * Unites bitmaps one 64-bit word at a time over the span they cover.
+     *
+     * @param bitmaps bitmaps to unite, at least one
+     * @return the union, each frequency taken from the first bitmap holding the document ID
+     */
+    static BitmapPostings or(BitmapPostings... bitmaps) {
+        int from = Integer.MAX_VALUE;
+        int to = Integer.MIN_VALUE;
+        for (BitmapPostings bitmap : bitmaps) {
+            from = Math.min(from, bitmap.base);
+            to = Math.max(to, bitmap.end());
+        }
+        long[] words = new long[(to - from) >> 6];
+        for (BitmapPostings bitmap : bitmaps) {
+            int offset = (bitmap.base - from) >>> 6;
+            for (int word = 0; word < bitmap.words.length; word++) {
+                words[offset + word] |= bitmap.words[word];
+            }
+        }
+        return of(from, words, bitmaps);
+    }
+
+    int size() {
+        return frequencies.length;
+    }
+
+    /**
+     * @return number of 64-bit words, the cost of a word-parallel operation over this bitmap
+     */
+    int words() {
+        return words.length;
+    }
+
+    private int end() {
+        return base + (words.length << 6);
+    }
+
+    boolean contains(int documentId) {
+        int bit = documentId - base;
+        return bit >= 0 && documentId < end() && (words[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @param documentId a document ID in this bitmap
+     * @return its position among the postings
+     */
+    int rank(int documentId) {
+        int bit = documentId - base;
+        return wordRanks[bit >>> 6] + Long.bitCount(words[bit >>> 6] & ((1L << bit) - 1));
+    }
+
+    /**
+     * @return the first document ID at or above {@code target}, or -1 when there is none
+     */
+    int nextDocumentId(int target) {
+        int bit = Math.max(0, target - base);
+        int word = bit >>> 6;
+        if (word >= words.length) {
+            return -1;
+        }
+        long bits = words[word] & (-1L << bit);
+        while (bits == 0) {
+            if (++word == words.length) {
+                return -1;
+            }
+            bits = words[word];
+        }
+        return base + (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * @param position position among the postings
+     * @return the document ID at that position, found through the word ranks
+     */
+    int documentId(int position) {
+        int low = 0;
+        int high = words.length - 1;
+        while (low < high) { // last word whose rank is at most position
+            int mid = (low + high + 1) >>> 1;
+            if (wordRanks[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long bits = words[low];
+        for (int skip = position - wordRanks[low]; skip > 0; skip--) {
+            bits &= bits - 1;
+        }
+        return base + (low << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    int frequency(int position) {
+        return frequencies[position];
+    }
+
+    /**
+     * Writes every posting in document ID order.
+     */
+    void decode(int[] documentIds, int[] frequencies) {
+        int i = 0;
+        for (int word = 0; word < words.length; word++) {
+            for (long bits = words[word]; bits != 0; bits &= bits - 1) {
+                documentIds[i++] = base + (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        System.arraycopy(this.frequencies, 0, frequencies, 0, this.frequencies.length);
+    }
+
+    /**
+     * @return approximate retained heap bytes on a 64-bit JVM with compressed oops
+     */
+    long heapBytes() {
+        return 24 + CompressedPostings.arrayBytes(words.length, Long.BYTES)
+                + CompressedPostings.arrayBytes(wordRanks.length, Integer.BYTES)
+                + CompressedPostings.arrayBytes(frequencies.length, Integer.BYTES);
+    }
+}
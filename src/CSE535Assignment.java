@@ -2,9 +2,9 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -20,43 +20,44 @@ public class CSE535Assignment {
     public static void main(String[] args) {
         if (args.length == 4) {
 
-            DocumentAtATime documentAtATime = new DocumentAtATime(args[0]);
-            TermAtATime termAtATime = new TermAtATime(args[0]);
+            Map<String, PostingList> index = Index.load(args[0]); // shared by all evaluators
+            DocumentAtATime documentAtATime = new DocumentAtATime(index);
+            QueryCache cache = QueryCache.fromSystemProperties();
 
-            // getTopK
-            documentAtATime.topK(Integer.parseInt(args[2]));
+            try (Logger logger = Logger.open(args[1])) { // streams to the log file and standard output
+                // getTopK
+                int k = Integer.parseInt(args[2]);
+                logger.function("getTopK", k);
+                logger.result(documentAtATime.topK(k));
 
-            parseQueryFile(args[3])
-                    .forEach(queryTerms -> {
-                        Arrays.stream(queryTerms).forEach(term -> {
-                            getPostings(documentAtATime, termAtATime, term); // getPostings
-                        });
-
-                        termAtATime.and(queryTerms); // TAAT AND
-                        termAtATime.or(queryTerms); // TAAT OR
-
-                        documentAtATime.and(queryTerms); // DAAT AND
-                        documentAtATime.or(queryTerms); // DAAT OR
-                    });
-
-            Logger.write(args[1]);
+                // getPostings, TAAT AND/OR and DAAT AND/OR for every query
+                new BatchQueryExecutor(index, cache).execute(parseQueryFile(args[3]), logger);
+            } catch (IOException e) {
+                System.err.println("IOException when opening log file: " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+            if (cache.isEnabled()) {
+                System.out.println(cache);
+            }
+            QueryMetrics.get().writeIfRequested();
         } else {
             System.err.println("Invalid command-line arguments");
             System.exit(1);
         }
     }
 
-    private static void getPostings(DocumentAtATime documentAtATime, TermAtATime termAtATime, String term) {
-        Logger.function("getPostings", term);
+    static void getPostings(DocumentAtATime documentAtATime, TermAtATime termAtATime, String term, Logger logger) {
+        logger.function("getPostings", term);
         Optional<PostingList> daatPostings = documentAtATime.postingList(term);
         if (daatPostings.isPresent()) {
-            Logger.log("Ordered by doc IDs", daatPostings.get().documentIds());
+            logger.log("Ordered by doc IDs", daatPostings.get().documentIds());
 
             termAtATime.postingList(term).ifPresent(postings -> {
-                Logger.log("Ordered by TF", postings.documentIds());
+                logger.log("Ordered by TF", postings.documentIds());
             });
         } else {
-            Logger.log("term not found");
+            logger.log("term not found");
         }
     }
 
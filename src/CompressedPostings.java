@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/**
+ * Posting storage compressed in fixed-size blocks. Inside a block document IDs are stored as d-gaps from the
+ * previous document ID, followed by the frequencies, all variable-byte encoded. A block table keeps the byte offset
+ * and the last document ID of every block so a single block can be decoded without touching the others.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class CompressedPostings {
+    static final int BLOCK_SIZE = 128;
+    static final int BLOCK_SHIFT = 7; // log2(BLOCK_SIZE)
+
+    private final byte[] data;
+    private final int[] blockOffsets;
+    private final int[] blockMaxDocumentIds;
+    private final int size;
+
+    private CompressedPostings(byte[] data, int[] blockOffsets, int[] blockMaxDocumentIds, int size) {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.blockMaxDocumentIds = blockMaxDocumentIds;
+        this.size = size;
+    }
+
+    /**
+     * @param postings posting list ordered by increasing document ID
+     * @return the compressed postings
+     */
+    static CompressedPostings encode(PostingList postings) {
+        int size = postings.size();
+        int blocks = (size + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int[] blockOffsets = new int[blocks];
+        int[] blockMaxDocumentIds = new int[blocks];
+        byte[] data = new byte[Math.max(16, size * 2)];
+        int[] frequencies = new int[BLOCK_SIZE]; // of the block being written
+        int offset = 0;
+        int previous = 0;
+
+        PostingList.Cursor cursor = postings.cursor();
+        for (int block = 0; block < blocks; block++) {
+            int length = Math.min(size - (block << BLOCK_SHIFT), BLOCK_SIZE);
+            blockOffsets[block] = offset;
+            data = ensureCapacity(data, offset + length * 2 * 5); // at most 5 bytes per int
+            for (int i = 0; i < length; i++, cursor.next()) {
+                int documentId = cursor.documentId();
+                if (documentId < previous) {
+                    throw new IllegalArgumentException("Postings must be ordered by increasing document ID");
+                }
+                offset = write(data, offset, documentId - previous);
+                frequencies[i] = cursor.frequency();
+                previous = documentId;
+            }
+            for (int i = 0; i < length; i++) {
+                offset = write(data, offset, frequencies[i]);
+            }
+            blockMaxDocumentIds[block] = previous;
+        }
+
+        return new CompressedPostings(Arrays.copyOf(data, offset), blockOffsets, blockMaxDocumentIds, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int blocks() {
+        return blockOffsets.length;
+    }
+
+    int blockMaxDocumentId(int block) {
+        return blockMaxDocumentIds[block];
+    }
+
+    /**
+     * Decodes one block.
+     *
+     * @param block       block number
+     * @param documentIds receives the document IDs, must hold {@link #BLOCK_SIZE} entries
+     * @param frequencies receives the frequencies, must hold {@link #BLOCK_SIZE} entries
+     * @return number of postings in the block
+     */
+    int decode(int block, int[] documentIds, int[] frequencies) {
+        int count = Math.min(BLOCK_SIZE, size - (block << BLOCK_SHIFT));
+        int offset = blockOffsets[block];
+        int documentId = block == 0 ? 0 : blockMaxDocumentIds[block - 1];
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            documentId += value;
+            documentIds[i] = documentId;
+        }
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            frequencies[i] = value;
+        }
+        return count;
+    }
+
+    /**
+     * @return approximate retained heap bytes on a 64-bit JVM with compressed oops
+     */
+    long heapBytes() {
+        return 24 + arrayBytes(data.length, 1) + arrayBytes(blockOffsets.length, 4)
+                + arrayBytes(blockMaxDocumentIds.length, 4);
+    }
+
+    static long arrayBytes(int length, int elementBytes) {
+        return (16L + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    /**
+     * Writes a non-negative int as a variable-byte sequence, 7 bits per byte with the high bit set on all but the
+     * last byte.
+     */
+    private static int write(byte[] data, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static byte[] ensureCapacity(byte[] data, int capacity) {
+        return capacity <= data.length ? data : Arrays.copyOf(data, Math.max(capacity, data.length + (data.length >> 1)));
+    }
+}
@@ -0,0 +1,369 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Pull-based iterator over document IDs in increasing order. Iterators over posting lists combine into lazy AND, OR
+ * and AND NOT iterators that nest to any depth and only move their operands as far as the next match needs, so a
+ * query tree reads its posting lists once without building a list per operator. Results are materialized only at
+ * the sink, by {@link #toArray()}, or just counted by {@link #count()}.
+ * <p>
+ * An iterator starts before its first document, at -1, and ends at {@link #NO_MORE_DOCS}.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public abstract class DocIdIterator {
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * @return the current document ID, -1 before the first call to {@link #nextDoc()} or {@link #advance(int)}
+     */
+    public abstract int docId();
+
+    /**
+     * @return the next document ID, or {@link #NO_MORE_DOCS} when there is none
+     */
+    public abstract int nextDoc();
+
+    /**
+     * Moves to the first document at or after the target, never moving backwards.
+     *
+     * @return the document ID moved to, or {@link #NO_MORE_DOCS} when there is none
+     */
+    public abstract int advance(int target);
+
+    /**
+     * @return an upper bound of the number of documents left, used to order operands
+     */
+    public abstract long cost();
+
+    /**
+     * @return number of document ID comparisons made so far, including those of the operands
+     */
+    public abstract int comparisons();
+
+    /**
+     * @return the number of documents left, without materializing them
+     */
+    public final int count() {
+        int count = 0;
+        while (nextDoc() != NO_MORE_DOCS) {
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the documents left, in increasing order
+     */
+    public final int[] toArray() {
+        int[] documentIds = new int[(int) Math.min(cost(), 1024)];
+        int size = 0;
+        for (int documentId = nextDoc(); documentId != NO_MORE_DOCS; documentId = nextDoc()) {
+            if (size == documentIds.length) {
+                documentIds = Arrays.copyOf(documentIds, Math.max(16, size + (size >> 1)));
+            }
+            documentIds[size++] = documentId;
+        }
+        return size == documentIds.length ? documentIds : Arrays.copyOf(documentIds, size);
+    }
+
+    /**
+     * @param postings list ordered by increasing document ID
+     * @return an iterator reading the list through a {@link PostingList.Cursor}
+     */
+    public static DocIdIterator of(PostingList postings) {
+        return new PostingIterator(postings.cursor(), 0);
+    }
+
+    /**
+     * @param comparisons comparisons already made to build the list, counted by {@link #comparisons()}
+     */
+    static DocIdIterator of(PostingList postings, int comparisons) {
+        return new PostingIterator(postings.cursor(), comparisons);
+    }
+
+    public static DocIdIterator empty() {
+        return new PostingIterator(new PostingList(0).cursor(), 0);
+    }
+
+    /**
+     * Leapfrog intersection: the cheapest operand leads, the others move to its candidates and the lead jumps to
+     * wherever one of them overshoots.
+     *
+     * @param operands iterators to intersect, at least one
+     * @param gallop   whether the others {@link #advance(int)} to candidates, which skips, or step through them with
+     *                 {@link #nextDoc()}, which suits operands of similar cost
+     */
+    public static DocIdIterator and(List<DocIdIterator> operands, boolean gallop) {
+        return operands.size() == 1 ? operands.get(0) : new Conjunction(operands, gallop);
+    }
+
+    /**
+     * @param operands iterators to merge, at least one
+     * @return the union of the operands, each document once
+     */
+    public static DocIdIterator or(List<DocIdIterator> operands) {
+        return operands.size() == 1 ? operands.get(0) : new Disjunction(operands);
+    }
+
+    /**
+     * @return the documents of the first iterator that the second one does not have
+     */
+    public static DocIdIterator andNot(DocIdIterator included, DocIdIterator excluded) {
+        return new Exclusion(included, excluded);
+    }
+
+    private static final class PostingIterator extends DocIdIterator {
+        private final PostingList.Cursor cursor;
+        private final int comparisons;
+        private boolean started;
+
+        PostingIterator(PostingList.Cursor cursor, int comparisons) {
+            this.cursor = cursor;
+            this.comparisons = comparisons;
+        }
+
+        @Override
+        public int docId() {
+            if (!started) {
+                return -1;
+            }
+            return cursor.exhausted() ? NO_MORE_DOCS : cursor.documentId();
+        }
+
+        @Override
+        public int nextDoc() {
+            if (started) {
+                cursor.next();
+            }
+            started = true;
+            return docId();
+        }
+
+        @Override
+        public int advance(int target) {
+            started = true;
+            cursor.advance(target);
+            return docId();
+        }
+
+        @Override
+        public long cost() {
+            return Math.max(0, cursor.size() - cursor.position());
+        }
+
+        @Override
+        public int comparisons() {
+            return comparisons + cursor.comparisons();
+        }
+    }
+
+    private static final class Conjunction extends DocIdIterator {
+        private final DocIdIterator[] operands; // by increasing cost, the first leads
+        private final boolean gallop;
+        private int documentId = -1;
+        private int comparisons;
+
+        Conjunction(List<DocIdIterator> operands, boolean gallop) {
+            this.operands = operands.toArray(new DocIdIterator[0]);
+            Arrays.sort(this.operands, Comparator.comparingLong(DocIdIterator::cost));
+            this.gallop = gallop;
+        }
+
+        @Override
+        public int docId() {
+            return documentId;
+        }
+
+        @Override
+        public int nextDoc() {
+            return documentId == NO_MORE_DOCS ? documentId : leapfrog(operands[0].nextDoc());
+        }
+
+        @Override
+        public int advance(int target) {
+            return target <= documentId ? documentId : leapfrog(operands[0].advance(target));
+        }
+
+        private int leapfrog(int candidate) {
+            candidates:
+            while (candidate != NO_MORE_DOCS) {
+                for (int i = 1; i < operands.length; i++) {
+                    int next = moveTo(operands[i], candidate);
+                    ++comparisons;
+                    if (next != candidate) { // overshot, the lead jumps to the new candidate
+                        candidate = next == NO_MORE_DOCS ? NO_MORE_DOCS : operands[0].advance(next);
+                        continue candidates;
+                    }
+                }
+                break;
+            }
+            return documentId = candidate;
+        }
+
+        private int moveTo(DocIdIterator operand, int target) {
+            if (gallop) {
+                return operand.advance(target);
+            }
+            int next = operand.docId();
+            while (next < target) {
+                ++comparisons;
+                next = operand.nextDoc();
+            }
+            return next;
+        }
+
+        @Override
+        public long cost() {
+            return operands[0].cost();
+        }
+
+        @Override
+        public int comparisons() {
+            int sum = comparisons;
+            for (DocIdIterator operand : operands) {
+                sum += operand.comparisons();
+            }
+            return sum;
+        }
+    }
+
+    private static final class Disjunction extends DocIdIterator {
+        private final DocIdIterator[] operands;
+        private final int[] heap; // operand numbers, a min-heap on their current document IDs
+        private int heapSize;
+        private int documentId = -1;
+        private int comparisons;
+
+        Disjunction(List<DocIdIterator> operands) {
+            this.operands = operands.toArray(new DocIdIterator[0]);
+            this.heap = new int[this.operands.length];
+            for (int i = 0; i < heap.length; i++) {
+                heap[i] = i; // all at -1, already a heap
+            }
+            this.heapSize = heap.length;
+        }
+
+        @Override
+        public int docId() {
+            return documentId;
+        }
+
+        @Override
+        public int nextDoc() {
+            if (documentId == NO_MORE_DOCS) {
+                return documentId;
+            }
+            while (heapSize > 0 && operands[heap[0]].docId() <= documentId) { // every operand on the current one
+                operands[heap[0]].nextDoc();
+                replaceTop();
+            }
+            return documentId = heapSize == 0 ? NO_MORE_DOCS : operands[heap[0]].docId();
+        }
+
+        @Override
+        public int advance(int target) {
+            if (target <= documentId) {
+                return documentId;
+            }
+            while (heapSize > 0 && operands[heap[0]].docId() < target) {
+                operands[heap[0]].advance(target);
+                replaceTop();
+            }
+            return documentId = heapSize == 0 ? NO_MORE_DOCS : operands[heap[0]].docId();
+        }
+
+        /**
+         * Restores the heap after the top operand moved, dropping it when it is exhausted.
+         */
+        private void replaceTop() {
+            if (operands[heap[0]].docId() == NO_MORE_DOCS) {
+                heap[0] = heap[--heapSize];
+            }
+            int i = 0;
+            while (2 * i + 1 < heapSize) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize) {
+                    ++comparisons;
+                    if (operands[heap[child + 1]].docId() < operands[heap[child]].docId()) {
+                        ++child;
+                    }
+                }
+                ++comparisons;
+                if (operands[heap[i]].docId() <= operands[heap[child]].docId()) {
+                    break;
+                }
+                int swap = heap[i];
+                heap[i] = heap[child];
+                heap[child] = swap;
+                i = child;
+            }
+        }
+
+        @Override
+        public long cost() {
+            long cost = 0;
+            for (DocIdIterator operand : operands) {
+                cost += operand.cost();
+            }
+            return cost;
+        }
+
+        @Override
+        public int comparisons() {
+            int sum = comparisons;
+            for (DocIdIterator operand : operands) {
+                sum += operand.comparisons();
+            }
+            return sum;
+        }
+    }
+
+    private static final class Exclusion extends DocIdIterator {
+        private final DocIdIterator included;
+        private final DocIdIterator excluded;
+        private int comparisons;
+
+        Exclusion(DocIdIterator included, DocIdIterator excluded) {
+            this.included = included;
+            this.excluded = excluded;
+        }
+
+        @Override
+        public int docId() {
+            return included.docId();
+        }
+
+        @Override
+        public int nextDoc() {
+            return skipExcluded(included.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) {
+            return target <= docId() ? docId() : skipExcluded(included.advance(target));
+        }
+
+        private int skipExcluded(int documentId) {
+            while (documentId != NO_MORE_DOCS) {
+                ++comparisons;
+                if (excluded.advance(documentId) != documentId) {
+                    break;
+                }
+                documentId = included.nextDoc();
+            }
+            return documentId;
+        }
+
+        @Override
+        public long cost() {
+            return included.cost();
+        }
+
+        @Override
+        public int comparisons() {
+            return comparisons + included.comparisons() + excluded.comparisons();
+        }
+    }
+}
@@ -1,6 +1,9 @@
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.IntSummaryStatistics;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Postings ordered by increasing document IDs
@@ -8,172 +11,471 @@ import java.util.List;
  * @author Wasif (wasifale@buffalo.edu).
  */
 public class DocumentAtATime extends Index {
+    public static final String FUNCTION_AND = "docAtATimeQueryAnd";
+    public static final String FUNCTION_OR = "docAtATimeQueryOr";
+    public static final String FUNCTION_PHRASE = "docAtATimeQueryPhrase";
+    public static final String FUNCTION_NEAR = "docAtATimeQueryNear";
 
-    public DocumentAtATime(String indexFile) {
-        super(indexFile, Comparator.comparing(Posting::documentId)); // sort by increasing documentId
+    /**
+     * Lists within this factor of each other in size are merged by the {@link IntersectionKernel}, longer ones are
+     * galloped through. Roaring makes the same switch between its array intersections at 64.
+     */
+    private static final int GALLOP_RATIO = 64;
+
+    private static final PostingList.Cursor[] NO_CURSORS = new PostingList.Cursor[0];
+
+    public DocumentAtATime(Map<String, PostingList> index) {
+        super(index); // already sorted by increasing documentId
     }
 
     /**
      * Performs Document-at-a-time AND evaluation
      *
      * @param queryTerms query terms in order of input
+     * @return the matching documents
      */
     @Override
-    public void and(String[] queryTerms) {
-        Logger.function("docAtATimeQueryAnd", queryTerms);
+    public QueryResult and(String[] queryTerms) {
+        return and(queryTerms, QueryMetrics.get().start(FUNCTION_AND));
+    }
 
+    /**
+     * @param trace times the evaluation, {@link QueryMetrics.Trace#DISABLED} when the caller records it
+     */
+    QueryResult and(String[] queryTerms, QueryMetrics.Trace trace) {
         List<PostingList> queryTermsPostings = postingLists(queryTerms);
+        trace.stage(QueryMetrics.Stage.LOOKUP);
 
         if (!queryTermsPostings.isEmpty()  && queryTermsPostings.size() == queryTerms.length) {
+            return and(queryTerms, queryTermsPostings, trace);
+        } else {
+            return trace.finish(QueryResult.notFound(FUNCTION_AND, queryTerms));
+        }
+    }
 
-            PostingList result = new PostingList();
-
-            int[] pointers = new int[queryTermsPostings.size()]; // pointers into all the posting lists
-            int comparisons = 0;
+    /**
+     * Performs Document-at-a-time AND evaluation over posting lists that were already looked up, for example
+     * intermediate intersections taken from a {@link QueryCache}.
+     * <p>
+     * Bitmap lists are intersected a word at a time when every list is a bitmap. Otherwise the sorted lists
+     * leapfrog as usual and each candidate they agree on is probed in the bitmaps, unless the lists are close enough
+     * in size to merge pairwise with the {@link IntersectionKernel}.
+     *
+     * @param queryTerms         query terms in order of input, only reported in the result
+     * @param queryTermsPostings non-empty posting lists to intersect, ordered by document ID
+     * @return the matching documents
+     */
+    public QueryResult and(String[] queryTerms, List<PostingList> queryTermsPostings) {
+        return and(queryTerms, queryTermsPostings, QueryMetrics.get().start(FUNCTION_AND));
+    }
 
+    private QueryResult and(String[] queryTerms, List<PostingList> queryTermsPostings, QueryMetrics.Trace trace) {
+        BitmapPostings[] bitmaps = bitmaps(queryTermsPostings);
+        if (bitmaps.length == queryTermsPostings.size()) {
             StopWatch stopWatch = StopWatch.createStarted();
+            PostingList result = new PostingList(BitmapPostings.and(bitmaps));
+            stopWatch.stop();
+            trace.stage(QueryMetrics.Stage.MERGE);
+            trace.scanned(size(queryTermsPostings));
+            return trace.materialized(QueryResult.of(FUNCTION_AND, queryTerms, result, words(bitmaps), null, stopWatch));
+        }
 
-            while_loop:
-            // main while loop label, we'll use this to break out
-            while (true) {
-
-                boolean isEqual = true;
-                Posting first = null;
-
-                for (int i = 0; i < pointers.length; i++) { // compare if all docid's in current step are equal
-                    PostingList postings = queryTermsPostings.get(i);
-                    if (pointers[i] < postings.size()) {
-                        Posting currentPosting = postings.get(pointers[i]);
-                        if (first == null) {
-                            first = currentPosting;
-                        } else {
-                            ++comparisons;
-                            if (first.documentId() != currentPosting.documentId()) {
-                                isEqual = false;
-                            }
-                        }
-                    } else {
-                        break while_loop; // break because we exceeded a pointer by it's posting-list size
-                    }
+        StopWatch stopWatch = StopWatch.createStarted();
+        Pair<PostingList, Integer> result;
+        if (bitmaps.length == 0 && isMergeable(queryTermsPostings)) {
+            result = merge(queryTermsPostings);
+            trace.scanned(result.second()); // a merge reads each posting once per comparison
+        } else {
+            PostingList.Cursor[] cursors = cursors(queryTermsPostings.stream()
+                    .filter(postings -> !postings.isBitmap())
+                    .collect(Collectors.toList()));
+            trace.stage(QueryMetrics.Stage.CURSORS);
+            result = leapfrog(cursors, bitmaps, NO_CURSORS);
+            for (PostingList.Cursor cursor : cursors) {
+                trace.scanned(cursor.position());
+            }
+        }
+        stopWatch.stop();
+        trace.stage(QueryMetrics.Stage.MERGE);
+        return trace.materialized(QueryResult.of(FUNCTION_AND, queryTerms, result.first(), result.second(), null,
+                stopWatch));
+    }
+
+    /**
+     * Leapfrog intersection: the shortest sorted list leads and the others advance(...) to its candidates. Each
+     * candidate they all agree on is then probed in the bitmaps, and dropped when an exclusion cursor lands on it.
+     *
+     * @param cursors  cursors into non-empty sorted lists to intersect
+     * @param bitmaps  bitmaps every result must also be in
+     * @param excluded cursors into sorted lists no result may be in
+     * @return the intersection with frequencies from the leading list, and the number of comparisons made
+     */
+    private static Pair<PostingList, Integer> leapfrog(PostingList.Cursor[] cursors, BitmapPostings[] bitmaps,
+                                                       PostingList.Cursor[] excluded) {
+        PostingList result = new PostingList();
+
+        // the shortest list leads, the others advance(...) to its candidates
+        Arrays.sort(cursors, Comparator.comparingInt(PostingList.Cursor::size));
+        PostingList.Cursor lead = cursors[0];
+        int comparisons = 0;
+
+        while_loop:
+        // main while loop label, we'll use this to break out
+        while (!lead.exhausted()) {
+            int candidate = lead.documentId();
+            boolean isEqual = true;
+
+            for (int i = 1; i < cursors.length; i++) { // advance every other cursor to the candidate
+                PostingList.Cursor cursor = cursors[i];
+                cursor.advance(candidate);
+                if (cursor.exhausted()) {
+                    break while_loop; // break because we exceeded a cursor by it's posting-list size
                 }
+                ++comparisons;
+                if (cursor.documentId() != candidate) { // overshot, the lead jumps to the new candidate
+                    lead.advance(cursor.documentId());
+                    isEqual = false;
+                    break;
+                }
+            }
 
-                if (isEqual) {
-                    result.add(first);
-                    for (int i = 0; i < pointers.length; i++) { // increment all pointers
-                        PostingList postings = queryTermsPostings.get(i);
-                        if (pointers[i] < postings.size()) {
-                            ++pointers[i];
-                        }
-                    }
-                } else {
-                    int maxDocId = Integer.MIN_VALUE; // find max docId to increment other pointers to
-                    for (int i = 0; i < pointers.length; i++) {
-                        PostingList postings = queryTermsPostings.get(i);
-                        if (pointers[i] < postings.size()) {
-                            Posting currentPosting = postings.get(pointers[i]);
-                            ++comparisons;
-                            if (currentPosting.documentId() > maxDocId) {
-                                maxDocId = currentPosting.documentId();
-                            }
-                        }
+            if (isEqual) {
+                for (BitmapPostings bitmap : bitmaps) { // constant time membership test per bitmap
+                    ++comparisons;
+                    if (!bitmap.contains(candidate)) {
+                        isEqual = false;
+                        break;
                     }
+                }
+                for (int i = 0; isEqual && i < excluded.length; i++) { // skip ahead in each excluded list
+                    excluded[i].advance(candidate);
+                    isEqual = excluded[i].exhausted() || excluded[i].documentId() != candidate;
+                }
+                if (isEqual) {
+                    result.add(candidate, lead.frequency());
+                }
+                lead.next();
+            }
+        }
+
+        for (PostingList.Cursor cursor : cursors) {
+            comparisons += cursor.comparisons();
+        }
+        for (PostingList.Cursor cursor : excluded) {
+            comparisons += cursor.comparisons();
+        }
+        return new Pair<>(result, comparisons);
+    }
+
+    private static boolean isMergeable(List<PostingList> postingLists) {
+        IntSummaryStatistics sizes = postingLists.stream().mapToInt(PostingList::size).summaryStatistics();
+        return sizes.getCount() > 1 && sizes.getMax() <= (long) sizes.getMin() * GALLOP_RATIO;
+    }
+
+    /**
+     * Intersects lists pairwise, shortest first, with the {@link IntersectionKernel}. A merge reads every document
+     * ID on both sides, each read is reported as a comparison.
+     *
+     * @param postingLists non-empty lists to intersect, ordered by document ID
+     * @return the intersection and the number of comparisons made
+     */
+    private static Pair<PostingList, Integer> merge(List<PostingList> postingLists) {
+        PostingList[] bySize = postingLists.stream()
+                .sorted(Comparator.comparingInt(PostingList::size))
+                .toArray(PostingList[]::new);
+        int comparisons = 0;
+
+        PostingList result = bySize[0];
+        for (int i = 1; i < bySize.length && !result.isEmpty(); i++) {
+            comparisons += result.size() + bySize[i].size();
+            result = result.intersect(bySize[i]);
+        }
+        return new Pair<>(result, comparisons);
+    }
+
+    /**
+     * Performs Document-at-a-time phrase evaluation: the terms must occur at consecutive positions, in order.
+     *
+     * @param queryTerms phrase terms in order
+     * @return the matching documents
+     * @throws IllegalStateException when a posting list carries no positions
+     * @see #near(String[], int)
+     */
+    public QueryResult phrase(String[] queryTerms) {
+        return positional(FUNCTION_PHRASE, queryTerms, queryTerms, -1);
+    }
 
+    /**
+     * Performs Document-at-a-time proximity evaluation: an occurrence of every term must fall within
+     * {@code distance} positions of the others, in any order.
+     * <p>
+     * Documents are first intersected exactly as {@link #and(String[])} does, positions are then decoded only for
+     * the documents holding every term, so the query costs little more than the AND. Decoded positions are reported
+     * as comparisons.
+     *
+     * @param queryTerms query terms, repeated terms count once
+     * @param distance   largest distance between the first and the last of the terms
+     * @return the matching documents
+     * @throws IllegalStateException when a posting list carries no positions
+     */
+    public QueryResult near(String[] queryTerms, int distance) {
+        return positional(FUNCTION_NEAR, queryTerms, Arrays.stream(queryTerms).distinct().toArray(String[]::new),
+                Math.max(0, distance));
+    }
 
-                    // increment pointers if it's less than maxDocId and if it can be incremented
-                    for (int i = 0; i < pointers.length; i++) {
-                        PostingList postings = queryTermsPostings.get(i);
-                        if (pointers[i] < postings.size()) {
-                            Posting currentPosting = postings.get(pointers[i]);
-                            ++comparisons;
-                            if (currentPosting.documentId() < maxDocId) {
-                                ++pointers[i];
-                            }
-                        } else {
-                            break while_loop;
-                        }
+    /**
+     * @param distance window for {@link #near(String[], int)}, negative for a phrase
+     */
+    private QueryResult positional(String function, String[] queryTerms, String[] terms, int distance) {
+        QueryMetrics.Trace trace = QueryMetrics.get().start(function);
+        List<PostingList> queryTermsPostings = postingLists(terms);
+        trace.stage(QueryMetrics.Stage.LOOKUP);
+        if (queryTermsPostings.isEmpty() || queryTermsPostings.size() != terms.length) {
+            return trace.finish(QueryResult.notFound(function, queryTerms));
+        }
+        for (int i = 0; i < terms.length; i++) {
+            if (!queryTermsPostings.get(i).hasPositions()) {
+                throw new IllegalStateException("No positions indexed for " + terms[i]);
+            }
+        }
+
+        StopWatch stopWatch = StopWatch.createStarted();
+
+        QueryResult candidates = and(terms, queryTermsPostings, QueryMetrics.Trace.DISABLED); // part of this trace
+        PostingList result = new PostingList();
+        int comparisons = candidates.comparisons();
+        if (candidates.isFound()) {
+            PostingList.Cursor[] cursors = cursors(queryTermsPostings); // in term order, unlike the AND
+            int[][] positions = new int[cursors.length][16];
+            int[] counts = new int[cursors.length];
+            for (int candidate : candidates.documentIds()) {
+                for (int i = 0; i < cursors.length; i++) {
+                    cursors[i].advance(candidate); // lands on the candidate, every list holds it
+                    if (positions[i].length < cursors[i].frequency()) {
+                        positions[i] = new int[cursors[i].frequency()];
                     }
+                    counts[i] = cursors[i].positions(positions[i]);
+                    comparisons += counts[i];
+                }
+                if (distance < 0 ? isPhrase(positions, counts) : isNear(positions, counts, distance)) {
+                    result.add(candidate, cursors[0].frequency());
                 }
             }
+            for (PostingList.Cursor cursor : cursors) {
+                comparisons += cursor.comparisons();
+                trace.scanned(cursor.position());
+            }
+        }
 
+        stopWatch.stop();
+        trace.stage(QueryMetrics.Stage.MERGE);
+        return trace.materialized(QueryResult.of(function, queryTerms, result, comparisons, null, stopWatch));
+    }
 
-            stopWatch.stop();
-            logResult(stopWatch, result, comparisons);
-        } else {
-            Logger.notFound();
+    /**
+     * @return true if the i-th term occurs i positions after some occurrence of the first term
+     */
+    private static boolean isPhrase(int[][] positions, int[] counts) {
+        int[] next = new int[positions.length];
+        for (int j = 0; j < counts[0]; j++) {
+            int start = positions[0][j];
+            boolean match = true;
+            for (int i = 1; i < positions.length && match; i++) {
+                while (next[i] < counts[i] && positions[i][next[i]] < start + i) {
+                    ++next[i];
+                }
+                if (next[i] == counts[i]) {
+                    return false; // no later start can match either
+                }
+                match = positions[i][next[i]] == start + i;
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Slides a window holding one occurrence of every term, always moving past the earliest occurrence.
+     *
+     * @return true if some window spans at most {@code distance} positions
+     */
+    private static boolean isNear(int[][] positions, int[] counts, int distance) {
+        int[] next = new int[positions.length];
+        for (int count : counts) {
+            if (count == 0) {
+                return false;
+            }
+        }
+        while (true) {
+            int earliest = 0;
+            int latest = Integer.MIN_VALUE;
+            for (int i = 0; i < positions.length; i++) {
+                int position = positions[i][next[i]];
+                if (position < positions[earliest][next[earliest]]) {
+                    earliest = i;
+                }
+                latest = Math.max(latest, position);
+            }
+            if (latest - positions[earliest][next[earliest]] <= distance) {
+                return true;
+            }
+            if (++next[earliest] == counts[earliest]) {
+                return false;
+            }
         }
     }
 
     /**
-     * Performs Document-at-a-time OR evaluation
+     * Performs Document-at-a-time OR evaluation, a word at a time when every posting list is a bitmap and with the
+     * {@link IntersectionKernel} when there are two lists. A term such as {@code perel*} is merged as every term
+     * starting with {@code perel}, see {@link #expandedPostingLists(String[])}.
      *
      * @param queryTerms query terms in order of input
+     * @return the matching documents
      */
     @Override
-    public void or(String[] queryTerms) {
-        Logger.function("docAtATimeQueryOr", queryTerms);
+    public QueryResult or(String[] queryTerms) {
+        return or(queryTerms, QueryMetrics.get().start(FUNCTION_OR));
+    }
 
-        List<PostingList> queryTermsPostings = postingLists(queryTerms);
+    /**
+     * @param trace times the evaluation, {@link QueryMetrics.Trace#DISABLED} when the caller records it
+     */
+    QueryResult or(String[] queryTerms, QueryMetrics.Trace trace) {
+        List<PostingList> queryTermsPostings = expandedPostingLists(queryTerms);
+        trace.stage(QueryMetrics.Stage.LOOKUP);
 
         if (!queryTermsPostings.isEmpty()) {
+            trace.scanned(size(queryTermsPostings)); // every posting is read once
+
+            BitmapPostings[] bitmaps = bitmaps(queryTermsPostings);
+            if (bitmaps.length == queryTermsPostings.size()) {
+                StopWatch stopWatch = StopWatch.createStarted();
+                PostingList result = new PostingList(BitmapPostings.or(bitmaps));
+                stopWatch.stop();
+                trace.stage(QueryMetrics.Stage.MERGE);
+                return trace.materialized(QueryResult.of(FUNCTION_OR, queryTerms, result, words(bitmaps), null,
+                        stopWatch));
+            }
+            if (queryTermsPostings.size() == 2) {
+                PostingList first = queryTermsPostings.get(0);
+                PostingList second = queryTermsPostings.get(1);
+                StopWatch stopWatch = StopWatch.createStarted();
+                PostingList result = first.union(second);
+                stopWatch.stop();
+                trace.stage(QueryMetrics.Stage.MERGE);
+                return trace.materialized(QueryResult.of(FUNCTION_OR, queryTerms, result,
+                        first.size() + second.size(), null, stopWatch));
+            }
 
             PostingList result = new PostingList();
 
-            int[] pointers = new int[queryTermsPostings.size()]; // pointers into all the posting lists
+            PostingList.Cursor[] cursors = cursors(queryTermsPostings); // cursors into all the posting lists
+            trace.stage(QueryMetrics.Stage.CURSORS);
             int comparisons = 0;
 
             StopWatch stopWatch = StopWatch.createStarted();
 
-            while_loop:
-            // main while loop label, we'll use this to break out
-            while (true) {
-                // find min posting in current pointers
-                Posting min = new Posting(Integer.MAX_VALUE, 0);
-                int countExhaustedPointers = 0; // counts the number of exhausted pointer, used to break out of main loop
-                for (int i = 0; i < pointers.length; i++) {
-                    PostingList postings = queryTermsPostings.get(i);
-                    if (pointers[i] < postings.size()) {
-                        Posting currentPosting = postings.get(pointers[i]);
-                        ++comparisons;
-                        if (currentPosting.documentId() < min.documentId()) {
-                            min = currentPosting;
-                        }
-                    } else {
-                        if (++countExhaustedPointers == pointers.length) { // have we reached the end of all posting-lists?
-                            break while_loop;
-                        }
-                    }
+            // k-way merge: a min-heap of cursor numbers keyed on each cursor's current document ID
+            int[] heap = new int[cursors.length];
+            int heapSize = 0;
+            for (int i = 0; i < cursors.length; i++) {
+                if (!cursors[i].exhausted()) {
+                    heap[heapSize++] = i;
                 }
-                result.add(min); // add the current min
-                for (int i = 0; i < pointers.length; i++) { // increment the pointers of all min doc-id's
-                    PostingList postings = queryTermsPostings.get(i);
-                    if (pointers[i] < postings.size()) {
-                        Posting currentPosting = postings.get(pointers[i]);
+            }
+            for (int i = heapSize / 2 - 1; i >= 0; i--) { // heapify
+                comparisons += siftDown(heap, heapSize, i, cursors);
+            }
+
+            while (heapSize > 0) {
+                PostingList.Cursor min = cursors[heap[0]];
+                int minDocId = min.documentId();
+                result.add(minDocId, min.frequency()); // add the current min
+
+                do { // increment the cursors of all min doc-id's, they surface at the top one after another
+                    PostingList.Cursor cursor = cursors[heap[0]];
+                    cursor.next();
+                    if (cursor.exhausted()) {
+                        heap[0] = heap[--heapSize];
+                    }
+                    comparisons += siftDown(heap, heapSize, 0, cursors);
+                    if (heapSize > 0) {
                         ++comparisons;
-                        if (currentPosting.documentId() == min.documentId()) {
-                            ++pointers[i];
-                        }
                     }
-                }
+                } while (heapSize > 0 && cursors[heap[0]].documentId() == minDocId);
             }
 
 
             stopWatch.stop();
-            logResult(stopWatch, result, comparisons);
+            trace.stage(QueryMetrics.Stage.MERGE);
+            return trace.materialized(QueryResult.of(FUNCTION_OR, queryTerms, result, comparisons, null, stopWatch));
         } else {
-            Logger.notFound();
+            return trace.finish(QueryResult.notFound(FUNCTION_OR, queryTerms));
         }
     }
 
-    private void logResult(StopWatch stopWatch, PostingList result, Integer comparisons) {
-        if (!result.isEmpty()) {
-            Logger.found(result.size());
-            Logger.comparisons(comparisons);
-            Logger.time(stopWatch.elapsedSeconds());
-            List<Integer> documentIds = result.documentIds();
-            documentIds.sort(Comparator.naturalOrder());
-            Logger.result(documentIds);
-        } else {
-            Logger.notFound();
+    /**
+     * Restores the heap property below position i.
+     *
+     * @return number of document ID comparisons made
+     */
+    private static int siftDown(int[] heap, int heapSize, int i, PostingList.Cursor[] cursors) {
+        int comparisons = 0;
+        int cursor = heap[i];
+        int documentId = heapSize > 0 ? cursors[cursor].documentId() : 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            int childDocumentId = cursors[heap[child]].documentId();
+            if (child + 1 < heapSize) {
+                ++comparisons;
+                int rightDocumentId = cursors[heap[child + 1]].documentId();
+                if (rightDocumentId < childDocumentId) {
+                    ++child;
+                    childDocumentId = rightDocumentId;
+                }
+            }
+            ++comparisons;
+            if (documentId <= childDocumentId) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            heap[i] = cursor;
+        }
+        return comparisons;
+    }
+
+    private static BitmapPostings[] bitmaps(List<PostingList> postingLists) {
+        return postingLists.stream()
+                .filter(PostingList::isBitmap)
+                .map(PostingList::bitmap)
+                .toArray(BitmapPostings[]::new);
+    }
+
+    /**
+     * @return number of 64-bit words a word-parallel operation touches, reported as its comparisons
+     */
+    private static int words(BitmapPostings[] bitmaps) {
+        return Arrays.stream(bitmaps).mapToInt(BitmapPostings::words).sum();
+    }
+
+    private static long size(List<PostingList> postingLists) {
+        return postingLists.stream().mapToLong(PostingList::size).sum();
+    }
+
+    private static PostingList.Cursor[] cursors(List<PostingList> postingLists) {
+        PostingList.Cursor[] cursors = new PostingList.Cursor[postingLists.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = postingLists.get(i).cursor();
         }
+        return cursors;
     }
 }
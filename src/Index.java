@@ -1,31 +1,75 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 
 /**
+ * Query evaluation over a term dictionary whose posting lists are ordered by increasing document ID.
+ * The dictionary is loaded once by {@link #load(String)} and shared by every evaluator.
+ *
  * @author Wasif (wasifale@buffalo.edu).
  */
 public abstract class Index {
     private static final Pattern SPLIT_LINE_PATTERN = Pattern.compile("(\\\\c)|(\\\\m)");
     private static final Pattern SPLIT_POSTINGS_LIST_PATTERN = Pattern.compile("(, )");
     private static final Pattern SPLIT_POSTING_PATTERN = Pattern.compile("(/)");
+    private static final Pattern SPLIT_POSITIONS_PATTERN = Pattern.compile(" ");
 
-    protected Map<String, PostingList> index;
+    /**
+     * System property that, when true, keeps posting lists ordered by document ID in compressed blocks.
+     */
+    public static final String COMPRESS_PROPERTY = "postings.compressed";
 
-    public Index(String indexFile, Comparator<Posting> postingComparator) {
-        index = parse(indexFile, postingComparator);
+    /**
+     * System property that, unless false, keeps dense posting lists as bitmaps, see {@link PostingList#adaptContainer()}.
+     */
+    public static final String BITMAP_PROPERTY = "postings.bitmaps";
+
+    /**
+     * System property that, when true, keeps the document IDs and frequencies of a parsed index outside the heap in
+     * a {@link PostingArena}, as plain lists regardless of {@link #BITMAP_PROPERTY} and {@link #COMPRESS_PROPERTY}.
+     */
+    public static final String OFF_HEAP_PROPERTY = "postings.offheap";
+
+    /**
+     * System property that, when {@code hash}, keeps a parsed text index in a hash map instead of a
+     * {@link TermDictionary}.
+     */
+    public static final String DICTIONARY_PROPERTY = "index.dictionary";
+
+    /**
+     * Suffix of a query term standing for every term that starts with the rest of it, as in {@code perel*}.
+     */
+    public static final String PREFIX_WILDCARD = "*";
+
+    private static final long MIN_RANGE_BYTES = 64 * 1024; // smaller ranges are not worth a task
+
+    protected final Map<String, PostingList> index;
+    private volatile TermDictionary dictionary; // sorted view of the index, built on first use
+
+    /**
+     * @param index shared term dictionary, posting lists ordered by increasing document ID
+     */
+    public Index(Map<String, PostingList> index) {
+        this.index = index;
     }
 
-    public abstract void and(String[] queryTerms);
+    public abstract QueryResult and(String[] queryTerms);
 
-    public abstract void or(String[] queryTerms);
+    public abstract QueryResult or(String[] queryTerms);
 
     public List<PostingList> postingLists(String[] queryTerms) {
         return Arrays.stream(queryTerms)
@@ -39,50 +83,288 @@ public abstract class Index {
         return Optional.ofNullable(index.get(term));
     }
 
-    public void topK(int k) {
-        Logger.function("getTopK", k);
+    /**
+     * Looks up query terms like {@link #postingLists(String[])}, expanding a term that ends in
+     * {@link #PREFIX_WILDCARD} and is not itself in the dictionary into the posting lists of every term that starts
+     * with it.
+     */
+    public List<PostingList> expandedPostingLists(String[] queryTerms) {
+        List<PostingList> postingLists = new ArrayList<>(queryTerms.length);
+        for (String term : queryTerms) {
+            PostingList postings = index.get(term);
+            if (postings != null) {
+                postingLists.add(postings);
+            } else if (isPrefix(term)) {
+                TermDictionary dictionary = dictionary();
+                Pair<Integer, Integer> ordinals = dictionary.prefix(term.substring(0, term.length() - 1));
+                for (int ordinal = ordinals.first(); ordinal < ordinals.second(); ordinal++) {
+                    postingLists.add(dictionary.postings(ordinal));
+                }
+            }
+        }
+        return postingLists;
+    }
+
+    /**
+     * @return whether a query term ends in {@link #PREFIX_WILDCARD}
+     */
+    public static boolean isPrefix(String term) {
+        return term.length() > PREFIX_WILDCARD.length() && term.endsWith(PREFIX_WILDCARD);
+    }
+
+    /**
+     * @return the index as a sorted dictionary, itself when it was loaded as one and a front-coded copy of its terms
+     * built on first use otherwise
+     */
+    public TermDictionary dictionary() {
+        TermDictionary dictionary = this.dictionary;
+        if (dictionary == null) {
+            synchronized (this) {
+                dictionary = this.dictionary;
+                if (dictionary == null) {
+                    this.dictionary = dictionary = TermDictionary.of(index);
+                }
+            }
+        }
+        return dictionary;
+    }
 
-        List<String> topK = index.entrySet()
-                .stream()
-                .sorted(Comparator.comparingInt((Map.Entry<String, PostingList> e) -> e.getValue().size()).reversed())
-                .map(Map.Entry::getKey)
-                .limit(k) // select only k!
-                .collect(Collectors.toList());
+    /**
+     * @return the statistics of every term of the index, see {@link TermDictionary#statistics()}
+     */
+    public TermStatistics statistics() {
+        return dictionary().statistics();
+    }
 
-        Logger.result(topK);
+    /**
+     * @param k number of terms to return
+     * @return the k terms with the longest posting lists, ties in term order
+     */
+    public List<String> topK(int k) {
+        return statistics().topK(k);
     }
 
-    protected Map<String, PostingList> parse(String indexFile, Comparator<Posting> postingComparator) {
+    /**
+     * Loads an index file, memory-mapping it when it is in binary format and parsing it as text otherwise.
+     * Posting lists are ordered by increasing document ID. Parsed lists that are dense become bitmaps unless
+     * {@link #BITMAP_PROPERTY} is false, the others are compressed when {@link #COMPRESS_PROPERTY} is set, or all of
+     * them are kept outside the heap when {@link #OFF_HEAP_PROPERTY} is set. A parsed index is kept in a
+     * {@link TermDictionary}, iterating in term order and with its {@link TermStatistics} computed up front, unless
+     * {@link #DICTIONARY_PROPERTY} is {@code hash}.
+     *
+     * @param indexFile text or binary index file
+     * @return the term dictionary to share between evaluators
+     */
+    public static Map<String, PostingList> load(String indexFile) {
         StopWatch stopWatch = StopWatch.createStarted();
 
-        Map<String, PostingList> map = new LinkedHashMap<>(24217); // NOTE: 24217 is num lines in term.idx
+        Map<String, PostingList> map = Collections.emptyMap();
+        try {
+            Path path = Paths.get(indexFile);
+            if (BinaryIndex.isBinary(path)) {
+                map = BinaryIndex.map(path);
+            } else {
+                map = parseTextParallel(indexFile, PostingList.Order.DOCUMENT_ID);
+                store(map);
+                if (!"hash".equalsIgnoreCase(System.getProperty(DICTIONARY_PROPERTY))) {
+                    TermDictionary dictionary = TermDictionary.of(map);
+                    dictionary.statistics();
+                    map = dictionary;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("IOException when reading index file: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        stopWatch.stop();
+        System.out.println("Loaded " + indexFile + " in " + stopWatch.elapsedSeconds() + " seconds.");
+
+        // safe to share between evaluators and threads
+        return map instanceof TermDictionary ? map : Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Replaces every posting list of a freshly parsed index by its storage: outside the heap when
+     * {@link #OFF_HEAP_PROPERTY} is set, and the {@link #container(PostingList)} of each list otherwise.
+     */
+    static void store(Map<String, PostingList> map) {
+        if (Boolean.getBoolean(OFF_HEAP_PROPERTY)) {
+            PostingArena arena = new PostingArena(PostingArena.bytes(map.values()));
+            map.replaceAll((term, postings) -> postings.offHeap(arena));
+        } else {
+            map.replaceAll((term, postings) -> container(postings));
+        }
+    }
+
+    /**
+     * Picks the storage of a posting list ordered by document ID: a bitmap when it is dense, unless
+     * {@link #BITMAP_PROPERTY} is false, and compressed blocks otherwise when {@link #COMPRESS_PROPERTY} is set.
+     */
+    static PostingList container(PostingList postings) {
+        if (!"false".equalsIgnoreCase(System.getProperty(BITMAP_PROPERTY))) {
+            postings = postings.adaptContainer();
+        }
+        return Boolean.getBoolean(COMPRESS_PROPERTY) ? postings.compress() : postings;
+    }
+
+    /**
+     * Parses a text index file sequentially.
+     *
+     * @param indexFile text index file
+     * @param order     order to sort each posting list by
+     * @return terms in order of the file mapped to their posting lists
+     * @throws IOException when the file cannot be read
+     */
+    public static Map<String, PostingList> parseText(String indexFile, PostingList.Order order) throws IOException {
+        Map<String, PostingList> map = new LinkedHashMap<>();
 
         try (Stream<String> lines = Files.lines(Paths.get(indexFile), StandardCharsets.UTF_8)) {
             lines.forEach(line -> {
-                String[] split = SPLIT_LINE_PATTERN.split(line, 3);
-                if (split.length == 3) {
-                    String[] postingsArray = SPLIT_POSTINGS_LIST_PATTERN
-                            .split(split[2].subSequence(1, split[2].length() - 1));
-
-                    LinkedList<Posting> postings = new LinkedList<>();
-                    for (String posting : postingsArray) {
-                        String[] posting_freq = SPLIT_POSTING_PATTERN.split(posting);
-                        postings.add(new Posting(Integer.parseInt(posting_freq[0]), Integer.parseInt(posting_freq[1])));
-                    }
+                Map.Entry<String, PostingList> entry = parseLine(line, order);
+                if (entry != null) {
+                    map.put(entry.getKey(), entry.getValue());
+                }
+            });
+        }
+
+        return map;
+    }
 
-                    postings.sort(postingComparator);
+    /**
+     * Parses a text index file on the common fork-join pool. The file is split into byte ranges that end on line
+     * boundaries, each range is parsed and sorted independently, and the ranges are merged in file order so the
+     * result is identical to {@link #parseText(String, PostingList.Order)}.
+     *
+     * @param indexFile text index file
+     * @param order     order to sort each posting list by
+     * @return terms in order of the file mapped to their posting lists
+     * @throws IOException when the file cannot be read
+     */
+    public static Map<String, PostingList> parseTextParallel(String indexFile, PostingList.Order order)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ)) {
+            long[] boundaries = lineBoundaries(channel, ForkJoinPool.getCommonPoolParallelism() * 4);
 
-                    map.put(split[0], new PostingList(postings));
+            List<List<Map.Entry<String, PostingList>>> ranges;
+            try {
+                ranges = IntStream.range(0, boundaries.length - 1)
+                        .parallel()
+                        .mapToObj(i -> parseRange(channel, boundaries[i], boundaries[i + 1], order))
+                        .collect(toList()); // keeps file order
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            int terms = ranges.stream().mapToInt(List::size).sum();
+            Map<String, PostingList> map = new LinkedHashMap<>((int) (terms / 0.75f) + 1); // sized from the data
+            for (List<Map.Entry<String, PostingList>> range : ranges) {
+                for (Map.Entry<String, PostingList> entry : range) {
+                    map.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Splits a file into at most {@code ranges} byte ranges, each starting right after a line feed.
+     *
+     * @return range boundaries, range i spans [boundaries[i], boundaries[i + 1])
+     */
+    private static long[] lineBoundaries(FileChannel channel, int ranges) throws IOException {
+        long size = channel.size();
+        ranges = (int) Math.max(1, Math.min(ranges, size / MIN_RANGE_BYTES));
+        long[] boundaries = new long[ranges + 1];
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        int count = 1;
+        for (int i = 1; i < ranges; i++) {
+            long position = Math.max(boundaries[count - 1], size * i / ranges);
+            long boundary = size;
+            search:
+            while (position < size) {
+                probe.clear();
+                int read = channel.read(probe, position);
+                for (int j = 0; j < read; j++) {
+                    if (probe.get(j) == '\n') {
+                        boundary = position + j + 1;
+                        break search;
+                    }
+                }
+                position += Math.max(read, 0);
+            }
+            if (boundary > boundaries[count - 1] && boundary < size) {
+                boundaries[count++] = boundary;
+            }
+        }
+        boundaries[count] = size;
+        return Arrays.copyOf(boundaries, count + 1);
+    }
+
+    private static List<Map.Entry<String, PostingList>> parseRange(FileChannel channel, long from, long to,
+                                                                   PostingList.Order order) {
+        try {
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            List<Map.Entry<String, PostingList>> entries = new ArrayList<>();
+            StandardCharsets.UTF_8.decode(bytes).toString().lines().forEach(line -> {
+                Map.Entry<String, PostingList> entry = parseLine(line, order);
+                if (entry != null) {
+                    entries.add(entry);
                 }
             });
+            return entries;
         } catch (IOException e) {
-            System.err.println("IOException when reading index file: " + e.getMessage());
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
+    }
 
-        stopWatch.stop();
-        System.out.println("Created " + this.getClass().getName() + " in " + stopWatch.elapsedSeconds() + " seconds.");
+    /**
+     * Parses one line of a text index, {@code term\cdocumentFrequency\m[documentId/frequency, ...]}. A positional
+     * index, as written by {@link PositionalIndexBuilder}, adds the word positions of each posting as
+     * {@code documentId/frequency/position position ...}.
+     *
+     * @return the term and its sorted posting list, or null when the line is malformed
+     */
+    private static Map.Entry<String, PostingList> parseLine(String line, PostingList.Order order) {
+        String[] split = SPLIT_LINE_PATTERN.split(line, 3);
+        if (split.length != 3) {
+            return null;
+        }
+        String[] postingsArray = SPLIT_POSTINGS_LIST_PATTERN
+                .split(split[2].subSequence(1, split[2].length() - 1));
 
-        return map;
+        PostingList postings = new PostingList(postingsArray.length);
+        PositionPostings.Builder positions = null;
+        int[] buffer = null;
+        for (String posting : postingsArray) {
+            String[] posting_freq = SPLIT_POSTING_PATTERN.split(posting);
+            int frequency = Integer.parseInt(posting_freq[1]);
+            postings.add(Integer.parseInt(posting_freq[0]), frequency);
+            if (posting_freq.length > 2) {
+                if (positions == null) {
+                    positions = new PositionPostings.Builder();
+                }
+                String[] split_positions = SPLIT_POSITIONS_PATTERN.split(posting_freq[2]);
+                if (split_positions.length != frequency) {
+                    return null;
+                }
+                buffer = buffer != null && buffer.length >= frequency ? buffer : new int[frequency];
+                for (int i = 0; i < frequency; i++) {
+                    buffer[i] = Integer.parseInt(split_positions[i]);
+                }
+                positions.add(buffer, frequency);
+            }
+        }
+        if (positions != null) {
+            PositionPostings built = positions.build();
+            if (built.size() != postings.size()) {
+                return null; // positions on some postings only
+            }
+            postings.withPositions(built);
+        }
+
+        postings.sort(order);
+
+        return new AbstractMap.SimpleImmutableEntry<>(split[0], postings);
     }
 }
@@ -0,0 +1,65 @@
+/**
+ * Merge kernel over sorted, distinct document ID arrays. Results are positions rather than document IDs so callers
+ * can pick up the matching frequencies.
+ * <p>
+ * {@link #get()} picks the vectorized kernel in {@code src-vector} when it was compiled and the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}, and the scalar kernel otherwise or when {@link #SIMD_PROPERTY} is false.
+ * Both produce identical results.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+interface IntersectionKernel {
+    /**
+     * System property that, when false, forces the scalar kernel.
+     */
+    String SIMD_PROPERTY = "postings.simd";
+
+    /**
+     * @param a         sorted document IDs
+     * @param aSize     number of document IDs in a
+     * @param b         sorted document IDs
+     * @param bSize     number of document IDs in b
+     * @param positions receives the positions in a of the common document IDs, in order, must hold
+     *                  min(aSize, bSize) entries
+     * @return number of common document IDs
+     */
+    int intersect(int[] a, int aSize, int[] b, int bSize, int[] positions);
+
+    /**
+     * @param a         sorted document IDs
+     * @param aSize     number of document IDs in a
+     * @param b         sorted document IDs
+     * @param bSize     number of document IDs in b
+     * @param positions receives the union in document ID order as a position in a, or as the complement
+     *                  {@code ~position} of a position in b for document IDs only b holds, must hold aSize + bSize
+     *                  entries
+     * @return number of distinct document IDs
+     */
+    int union(int[] a, int aSize, int[] b, int bSize, int[] positions);
+
+    String name();
+
+    static IntersectionKernel get() {
+        return Holder.KERNEL;
+    }
+
+    final class Holder {
+        private static final IntersectionKernel KERNEL = load();
+
+        private Holder() {
+        }
+
+        private static IntersectionKernel load() {
+            if (!"false".equalsIgnoreCase(System.getProperty(SIMD_PROPERTY))) {
+                try {
+                    return (IntersectionKernel) Class.forName("VectorIntersectionKernel")
+                            .getDeclaredConstructor()
+                            .newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // not compiled, or the incubator module is not resolved: fall back to scalar code
+                }
+            }
+            return new ScalarIntersectionKernel();
+        }
+    }
+}
@@ -1,5 +1,8 @@
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -8,83 +11,343 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Output lines in the assignment's format. A logger created by {@link #Logger()} keeps its lines in memory, as one
+ * run of text, for a server response. A logger created by {@link #open(String)} or
+ * {@link #standardOutput()} streams every line as it is logged through fixed-size buffers, so output of any length
+ * takes bounded memory. Numbers are formatted straight into the buffers, without boxing. All methods are
+ * synchronized so an instance may also be shared between threads.
+ * <p>
+ * A streaming logger remembers the first write that failed, stops writing, and reports it on {@link #close()}.
+ *
  * @author Wasif (wasifale@buffalo.edu).
  */
-public final class Logger {
+public final class Logger implements AutoCloseable {
+    private static final String SEPARATOR = ", ";
 
-    private static final List<String> lines = new ArrayList<>();
-    public static final Collector<CharSequence, ?, String> STRING_COLLECTOR = Collectors.joining(", ");
+    private final StringBuilder text; // lines logged so far, each ending in '\n', null when streaming
+    private final Writer[] writers; // streaming to each of these
+    private final Writer file; // closed by close(), null unless streaming to a file
+    private final char[] digits = new char[11]; // formats an int
+    private IOException failure;
 
-    private Logger() {
+    /**
+     * Creates a logger that keeps its lines in memory.
+     */
+    public Logger() {
+        this.text = new StringBuilder();
+        this.writers = new Writer[0];
+        this.file = null;
     }
 
-    public static void log(String line) {
-        lines.add(line);
+    private Logger(Writer file, Writer standardOutput) {
+        this.text = null;
+        this.writers = file == null ? new Writer[]{standardOutput} : new Writer[]{file, standardOutput};
+        this.file = file;
     }
 
-    public static <T> void log(String key, Collection<T> args) {
-        lines.add(key + ": " +
-                args.stream()
-                        .map(Object::toString)
-                        .collect(STRING_COLLECTOR));
+    /**
+     * @param logFile file to write, truncated first
+     * @return a logger streaming its lines to the file and to standard output
+     * @throws IOException when the file cannot be opened
+     */
+    public static Logger open(String logFile) throws IOException {
+        return new Logger(Files.newBufferedWriter(Paths.get(logFile), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), standardOutputWriter());
     }
 
-    public static void function(String function, Object o) {
-        lines.add("FUNCTION: " + function + " " + o.toString());
+    /**
+     * @return a logger streaming its lines to standard output
+     */
+    public static Logger standardOutput() {
+        return new Logger(null, standardOutputWriter());
     }
 
-    public static void function(String function, Object[] args) {
-        lines.add("FUNCTION: " + function + " " +
-                Arrays.stream(args)
-                        .map(Object::toString)
-                        .collect(STRING_COLLECTOR));
+    private static Writer standardOutputWriter() {
+        return new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
     }
 
-    public static void function(String function, Collection<Object> args) {
-        lines.add("FUNCTION: " + function + " " +
-                args.stream()
-                        .map(Object::toString)
-                        .collect(STRING_COLLECTOR));
+    public synchronized void log(String line) {
+        append(line);
+        endLine();
     }
 
-    public static void result(Collection<?> args) {
-        lines.add("Result: "
-                + args.stream()
-                .map(Object::toString)
-                .collect(STRING_COLLECTOR));
+    public synchronized <T> void log(String key, Collection<T> args) {
+        append(key);
+        append(": ");
+        join(args);
+        endLine();
     }
 
-    public static void write(String logFile) {
-        try (BufferedWriter bufferedWriter = Files.newBufferedWriter(Paths.get(logFile), StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            for (String line : lines) {
-                System.out.println(line);
-                bufferedWriter.write(line);
-                bufferedWriter.newLine();
+    public synchronized void log(String key, int[] args) {
+        append(key);
+        append(": ");
+        join(args);
+        endLine();
+    }
+
+    /**
+     * Logs the evaluation of a query in the assignment's output format.
+     */
+    public synchronized void log(QueryResult result) {
+        function(result.function(), result.queryTerms());
+        if (result.isFound()) {
+            int[] documentIds = result.documentIds();
+            found(documentIds.length);
+            comparisons(result.comparisons());
+            time(TimeUnit.NANOSECONDS.toSeconds(result.elapsedNanos()));
+            if (result.optimizedComparisons() != null) {
+                append(result.optimizedComparisons());
+                append(" comparisons are made with optimization");
+                endLine();
+            }
+            result(documentIds);
+        } else {
+            notFound();
+        }
+    }
+
+    /**
+     * Logs a ranked query as its documents with their scores, best first.
+     */
+    public synchronized void log(RankedResult result) {
+        function(result.function(), result.queryTerms());
+        if (result.size() > 0) {
+            found(result.size());
+            append(result.scoredDocuments());
+            append(" documents are scored");
+            endLine();
+            time(TimeUnit.NANOSECONDS.toSeconds(result.elapsedNanos()));
+            append("Result: ");
+            for (int rank = 0; rank < result.size(); rank++) {
+                if (rank > 0) {
+                    append(SEPARATOR);
+                }
+                append(result.documentId(rank));
+                append(" (");
+                append(Float.toString(result.score(rank)));
+                append(")");
             }
-        } catch (IOException e) {
-            System.err.println("IOException when writing log file: " + e.getMessage());
-            e.printStackTrace();
+            endLine();
+        } else {
+            notFound();
+        }
+    }
+
+    public synchronized void function(String function, Object o) {
+        append("FUNCTION: ");
+        append(function);
+        append(" ");
+        append(o);
+        endLine();
+    }
+
+    public synchronized void function(String function, Object[] args) {
+        function(function, Arrays.asList(args));
+    }
+
+    public synchronized void function(String function, Collection<Object> args) {
+        append("FUNCTION: ");
+        append(function);
+        append(" ");
+        join(args);
+        endLine();
+    }
+
+    public synchronized void result(Collection<?> args) {
+        append("Result: ");
+        join(args);
+        endLine();
+    }
+
+    public synchronized void result(int[] args) {
+        append("Result: ");
+        join(args);
+        endLine();
+    }
+
+    /**
+     * @return a copy of the lines logged so far
+     * @throws IllegalStateException when the logger streams its lines
+     */
+    public synchronized List<String> lines() {
+        List<String> lines = new ArrayList<>();
+        StringBuilder text = text();
+        int start = 0;
+        for (int end = text.indexOf("\n"); end >= 0; end = text.indexOf("\n", start)) {
+            lines.add(text.substring(start, end));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the lines logged so far, each followed by a line separator.
+     *
+     * @throws IllegalStateException when the logger streams its lines
+     */
+    public synchronized void writeTo(BufferedWriter writer) throws IOException {
+        StringBuilder text = text();
+        int start = 0;
+        for (int end = text.indexOf("\n"); end >= 0; end = text.indexOf("\n", start)) {
+            writer.append(text, start, end);
+            writer.newLine();
+            start = end + 1;
+        }
+    }
+
+    private StringBuilder text() {
+        if (text == null) {
+            throw new IllegalStateException("A streaming logger does not keep its lines");
         }
+        return text;
+    }
+
+    public synchronized void found(int size) {
+        append(size);
+        append(" documents are found");
+        endLine();
+    }
+
+    public synchronized void comparisons(int size) {
+        append(size);
+        append(" comparisons are made");
+        endLine();
     }
 
-    public static void found(int size) {
-        lines.add(size + " documents are found");
+    public synchronized void time(long seconds) {
+        append(Long.toString(seconds));
+        append(" seconds are used");
+        endLine();
     }
 
-    public static void comparisons(int size) {
-        lines.add(size + " comparisons are made");
+    public synchronized void notFound() {
+        append("terms not found");
+        endLine();
     }
 
-    public static void time(long seconds) {
-        lines.add(seconds + " seconds are used");
+    /**
+     * Flushes a streaming logger, which takes effect at once otherwise.
+     */
+    public synchronized void flush() {
+        for (Writer writer : writers) {
+            if (failure == null) {
+                try {
+                    writer.flush();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
     }
 
-    public static void notFound() {
-        lines.add("terms not found");
+    /**
+     * Flushes a streaming logger and closes its file, reporting the first write that failed.
+     */
+    @Override
+    public synchronized void close() {
+        flush();
+        if (file != null) { // standard output stays open
+            try {
+                file.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            System.err.println("IOException when writing log file: " + failure.getMessage());
+            failure.printStackTrace();
+        }
+    }
+
+    private void join(Collection<?> args) {
+        boolean first = true;
+        for (Object arg : args) {
+            if (!first) {
+                append(SEPARATOR);
+            }
+            first = false;
+            append(arg);
+        }
+    }
+
+    private void join(int[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                append(SEPARATOR);
+            }
+            append(args[i]);
+        }
+    }
+
+    private void append(Object o) {
+        if (o instanceof Integer) {
+            append(((Integer) o).intValue());
+        } else {
+            append(o.toString());
+        }
+    }
+
+    private void append(String s) {
+        append(s, 0, s.length());
+    }
+
+    private void append(String s, int start, int end) {
+        if (text != null) {
+            text.append(s, start, end);
+            return;
+        }
+        for (Writer writer : writers) {
+            if (failure == null) {
+                try {
+                    writer.write(s, start, end - start);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void append(int value) {
+        if (text != null) {
+            text.append(value);
+            return;
+        }
+        int start = digits.length;
+        long rest = Math.abs((long) value);
+        do {
+            digits[--start] = (char) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest > 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        for (Writer writer : writers) {
+            if (failure == null) {
+                try {
+                    writer.write(digits, start, digits.length - start);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void endLine() {
+        if (text != null) {
+            text.append('\n');
+            return;
+        }
+        for (Writer writer : writers) {
+            if (failure == null) {
+                try {
+                    ((BufferedWriter) writer).newLine();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
     }
 }
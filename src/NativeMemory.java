@@ -0,0 +1,61 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the native memory behind a {@link PostingArena}.
+ * <p>
+ * {@link #get()} picks the foreign memory segments in {@code src-foreign} when they were compiled and the JVM runs
+ * with {@code --add-modules jdk.incubator.foreign}, and direct byte buffers otherwise or when
+ * {@link #FOREIGN_PROPERTY} is false. Either way the memory is released once its buffer is unreachable.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+interface NativeMemory {
+    /**
+     * System property that, when false, forces direct byte buffers.
+     */
+    String FOREIGN_PROPERTY = "postings.foreign";
+
+    /**
+     * @param bytes size of the memory
+     * @return a buffer over that many bytes of new, zeroed native memory
+     */
+    ByteBuffer allocate(int bytes);
+
+    String name();
+
+    static NativeMemory get() {
+        return Holder.MEMORY;
+    }
+
+    final class Holder {
+        private static final NativeMemory MEMORY = load();
+
+        private Holder() {
+        }
+
+        private static NativeMemory load() {
+            if (!"false".equalsIgnoreCase(System.getProperty(FOREIGN_PROPERTY))) {
+                try {
+                    return (NativeMemory) Class.forName("ForeignNativeMemory")
+                            .getDeclaredConstructor()
+                            .newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // not compiled, or the incubator module is not resolved: fall back to direct buffers
+                }
+            }
+            return new DirectNativeMemory();
+        }
+    }
+
+    final class DirectNativeMemory implements NativeMemory {
+        @Override
+        public ByteBuffer allocate(int bytes) {
+            return ByteBuffer.allocateDirect(bytes);
+        }
+
+        @Override
+        public String name() {
+            return "direct";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * Word positions of every posting in a list, kept apart from the document IDs and frequencies so queries that do
+ * not need them never decode them. The positions of one posting are stored as variable-byte gaps from the previous
+ * position, and an offset table locates the positions of any posting directly.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class PositionPostings {
+    private final byte[] data;
+    private final int[] offsets; // positions of posting i span [offsets[i], offsets[i + 1])
+
+    private PositionPostings(byte[] data, int[] offsets) {
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Decodes the positions of one posting.
+     *
+     * @param posting   posting number in list order
+     * @param positions receives the positions in increasing order, must hold the posting's frequency
+     * @return number of positions
+     */
+    int decode(int posting, int[] positions) {
+        int offset = offsets[posting];
+        int end = offsets[posting + 1];
+        int position = 0;
+        int count = 0;
+        while (offset < end) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += value;
+            positions[count++] = position;
+        }
+        return count;
+    }
+
+    /**
+     * @param order posting numbers in their new order
+     * @return the positions reordered so that posting i holds the positions of posting order[i]
+     */
+    PositionPostings permute(int[] order) {
+        byte[] permuted = new byte[data.length];
+        int[] permutedOffsets = new int[offsets.length];
+        int offset = 0;
+        for (int i = 0; i < order.length; i++) {
+            int length = offsets[order[i] + 1] - offsets[order[i]];
+            System.arraycopy(data, offsets[order[i]], permuted, offset, length);
+            offset += length;
+            permutedOffsets[i + 1] = offset;
+        }
+        return new PositionPostings(permuted, permutedOffsets);
+    }
+
+    /**
+     * @return approximate retained heap bytes on a 64-bit JVM with compressed oops
+     */
+    long heapBytes() {
+        return 16 + CompressedPostings.arrayBytes(data.length, 1)
+                + CompressedPostings.arrayBytes(offsets.length, Integer.BYTES);
+    }
+
+    /**
+     * Accumulates the positions of postings in list order.
+     */
+    static final class Builder {
+        private byte[] data = new byte[64];
+        private int[] offsets = new int[16];
+        private int size;
+
+        /**
+         * @param positions positions of the next posting in increasing order
+         * @param count     number of positions
+         */
+        void add(int[] positions, int count) {
+            int offset = offsets[size];
+            data = count * 5 + offset <= data.length ? data
+                    : Arrays.copyOf(data, Math.max(count * 5 + offset, data.length + (data.length >> 1)));
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                if (positions[i] < previous) {
+                    throw new IllegalArgumentException("Positions must be increasing");
+                }
+                int value = positions[i] - previous;
+                while ((value & ~0x7F) != 0) {
+                    data[offset++] = (byte) ((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                data[offset++] = (byte) value;
+                previous = positions[i];
+            }
+            if (++size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[size] = offset;
+        }
+
+        PositionPostings build() {
+            return new PositionPostings(Arrays.copyOf(data, offsets[size]), Arrays.copyOf(offsets, size + 1));
+        }
+    }
+}
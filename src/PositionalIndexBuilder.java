@@ -0,0 +1,95 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Builds a positional text index from a directory of documents, one file per document named by its document ID.
+ * Terms are the whitespace separated words of each document, numbered from 0. Each posting is written as
+ * {@code documentId/frequency/position position ...}, which {@link Index#load(String)} reads like any other text
+ * index.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class PositionalIndexBuilder {
+    private static final Pattern SPACE_PATTERN = Pattern.compile("\\s+");
+
+    private final Map<String, TreeMap<Integer, List<Integer>>> postings = new TreeMap<>();
+
+    /**
+     * @param documentId document ID, postings of a term are kept ordered by it
+     * @param text       the document text
+     */
+    public void add(int documentId, String text) {
+        int position = 0;
+        for (String term : SPACE_PATTERN.split(text.trim())) {
+            if (!term.isEmpty()) {
+                postings.computeIfAbsent(term, t -> new TreeMap<>())
+                        .computeIfAbsent(documentId, d -> new ArrayList<>())
+                        .add(position++);
+            }
+        }
+    }
+
+    public void write(Path indexFile) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, TreeMap<Integer, List<Integer>>> term : postings.entrySet()) {
+                writer.write(term.getKey() + "\\c" + term.getValue().size() + "\\m[");
+                boolean first = true;
+                for (Map.Entry<Integer, List<Integer>> posting : term.getValue().entrySet()) {
+                    if (!first) {
+                        writer.write(", ");
+                    }
+                    first = false;
+                    List<Integer> positions = posting.getValue();
+                    writer.write(String.format("%07d/%d/", posting.getKey(), positions.size()));
+                    for (int i = 0; i < positions.size(); i++) {
+                        if (i > 0) {
+                            writer.write(' ');
+                        }
+                        writer.write(Integer.toString(positions.get(i)));
+                    }
+                }
+                writer.write(']');
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * @param args directory of documents and positional index file to write
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: PositionalIndexBuilder <documents directory> <index file>");
+            System.exit(1);
+        }
+        StopWatch stopWatch = StopWatch.createStarted();
+        PositionalIndexBuilder builder = new PositionalIndexBuilder();
+        try (Stream<Path> documents = Files.list(Paths.get(args[0]))) {
+            for (Path document : (Iterable<Path>) documents.sorted()::iterator) {
+                try {
+                    int documentId = Integer.parseInt(document.getFileName().toString());
+                    builder.add(documentId, new String(Files.readAllBytes(document), StandardCharsets.UTF_8));
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping " + document + ", its name is not a document ID");
+                }
+            }
+            builder.write(Paths.get(args[1]));
+        } catch (IOException e) {
+            System.err.println("IOException when building positional index: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        stopWatch.stop();
+        System.out.println("Indexed " + args[0] + " into " + args[1] + " in " + stopWatch.elapsedSeconds() + " seconds.");
+    }
+}
@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Collection;
+
+/**
+ * Allocates the document IDs and frequencies of posting lists outside the Java heap, in slabs of native memory
+ * from {@link NativeMemory} handed out in order. A list copied into the arena keeps only its object and two buffer
+ * views on the heap, so collections neither copy nor scan its postings. The memory of a slab is released when the
+ * slab and every list in it are unreachable; lists are never freed one at a time.
+ * <p>
+ * Slabs are at most {@link #SLAB_BYTES}, and no larger than the bytes the arena still expects, so a small index does
+ * not reserve a whole slab.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class PostingArena {
+    static final int SLAB_BYTES = 64 << 20;
+
+    private final NativeMemory memory = NativeMemory.get();
+    private long expectedBytes; // still to be allocated, as far as known
+    private ByteBuffer slab = ByteBuffer.allocateDirect(0);
+    private long allocatedBytes;
+    private long usedBytes;
+
+    /**
+     * @param expectedBytes bytes the lists copied into the arena will take, see {@link #bytes(Collection)}
+     */
+    PostingArena(long expectedBytes) {
+        this.expectedBytes = expectedBytes;
+    }
+
+    /**
+     * @return bytes that copying the lists into an arena takes
+     */
+    static long bytes(Collection<PostingList> postingLists) {
+        long bytes = 0;
+        for (PostingList postings : postingLists) {
+            bytes += 2L * postings.size() * Integer.BYTES; // document IDs and frequencies
+        }
+        return bytes;
+    }
+
+    /**
+     * @param ints number of ints
+     * @return a writable buffer of that many ints, in native byte order
+     */
+    synchronized IntBuffer allocate(int ints) {
+        int bytes = ints * Integer.BYTES;
+        if (slab.remaining() < bytes) {
+            int capacity = (int) Math.max(bytes, Math.min(SLAB_BYTES, expectedBytes));
+            slab = memory.allocate(capacity).order(ByteOrder.nativeOrder());
+            allocatedBytes += slab.capacity();
+        }
+        int position = slab.position();
+        ByteBuffer region = slab.duplicate();
+        region.limit(position + bytes);
+        slab.position(position + bytes);
+        usedBytes += bytes;
+        expectedBytes -= bytes;
+        return region.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * @return bytes of native memory allocated for slabs
+     */
+    synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return bytes of native memory holding postings
+     */
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+}
@@ -1,63 +1,377 @@
-import java.util.*;
-
-import static java.util.stream.Collectors.toList;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 /**
- * Convenience wrapper
- * Delegates to LinkedList
+ * Compact posting list backed by parallel int buffers of document IDs and frequencies.
+ * Supports O(1) random access and cursor-style iteration without allocating an object per entry.
+ * Buffers either wrap heap arrays or are read-only views into a memory-mapped {@link BinaryIndex} or a
+ * {@link PostingArena} outside the heap.
+ * Lists ordered by document ID can also be held in {@link CompressedPostings} blocks, which cursors decode lazily
+ * one block at a time, and dense lists in a {@link BitmapPostings}, which cursors walk a 64-bit word at a time.
+ * A list ordered by document ID may also carry the word positions of its postings in {@link PositionPostings},
+ * which only phrase and proximity queries decode.
  *
  * @author Wasif (wasifale@buffalo.edu).
  */
-public class PostingList extends AbstractSequentialList<Posting> {
-    private final LinkedList<Posting> postings;
+public class PostingList {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private IntBuffer documentIds;
+    private IntBuffer frequencies;
+    private CompressedPostings compressed; // when set, documentIds and frequencies are null
+    private BitmapPostings bitmap; // likewise
+    private PositionPostings positions; // optional, in list order
+    private int size;
 
     public PostingList() {
-        postings = new LinkedList<>();
+        this(DEFAULT_CAPACITY);
     }
 
-    public PostingList(LinkedList<Posting> postings) {
-        this.postings = postings;
+    public PostingList(int capacity) {
+        documentIds = IntBuffer.allocate(capacity);
+        frequencies = IntBuffer.allocate(capacity);
     }
 
     public PostingList(PostingList postings) {
-        this.postings = new LinkedList<>(postings);
+        this.documentIds = IntBuffer.wrap(postings.documentIds());
+        this.frequencies = IntBuffer.wrap(postings.frequencies());
+        this.size = postings.size;
+    }
+
+    /**
+     * Creates a posting list over existing buffers without copying them.
+     *
+     * @param documentIds document IDs, indexed from 0
+     * @param frequencies frequencies, indexed from 0
+     * @param size        number of postings
+     */
+    PostingList(IntBuffer documentIds, IntBuffer frequencies, int size) {
+        this.documentIds = documentIds;
+        this.frequencies = frequencies;
+        this.size = size;
+    }
+
+    private PostingList(CompressedPostings compressed) {
+        this.compressed = compressed;
+        this.size = compressed.size();
+    }
+
+    PostingList(BitmapPostings bitmap) {
+        this.bitmap = bitmap;
+        this.size = bitmap.size();
+    }
+
+    /**
+     * Compresses a posting list ordered by increasing document ID into variable-byte encoded blocks.
+     *
+     * @return a new compressed posting list with the same postings
+     */
+    public PostingList compress() {
+        return compressed != null || bitmap != null
+                ? this : new PostingList(CompressedPostings.encode(this)).withPositions(positions);
+    }
+
+    public boolean isCompressed() {
+        return compressed != null;
+    }
+
+    /**
+     * Picks the container for a posting list ordered by increasing document ID: a bitmap when the list is dense
+     * enough for {@link BitmapPostings#isDense(PostingList)}, the list as it is otherwise.
+     *
+     * @return a bitmap posting list with the same postings, or this list
+     */
+    public PostingList adaptContainer() {
+        return compressed == null && bitmap == null && BitmapPostings.isDense(this)
+                ? new PostingList(BitmapPostings.encode(this)).withPositions(positions) : this;
+    }
+
+    public boolean isBitmap() {
+        return bitmap != null;
+    }
+
+    /**
+     * Copies the document IDs and frequencies of this list into an arena outside the heap, in list order. Word
+     * positions stay on the heap.
+     *
+     * @return a new read-only posting list over the arena
+     */
+    PostingList offHeap(PostingArena arena) {
+        IntBuffer documentIds = arena.allocate(size);
+        IntBuffer frequencies = arena.allocate(size);
+        for (Cursor cursor = cursor(); !cursor.exhausted(); cursor.next()) {
+            documentIds.put(cursor.documentId());
+            frequencies.put(cursor.frequency());
+        }
+        return new PostingList(documentIds.asReadOnlyBuffer(), frequencies.asReadOnlyBuffer(), size)
+                .withPositions(positions);
+    }
+
+    /**
+     * Attaches word positions, posting i of the positions belonging to posting i of this list.
+     *
+     * @return this list
+     */
+    PostingList withPositions(PositionPostings positions) {
+        if (positions != null && positions.size() != size) {
+            throw new IllegalArgumentException("Positions of " + positions.size() + " postings for " + size);
+        }
+        this.positions = positions;
+        return this;
+    }
+
+    public boolean hasPositions() {
+        return positions != null;
+    }
+
+    /**
+     * @return the bitmap container, null unless {@link #isBitmap()}
+     */
+    BitmapPostings bitmap() {
+        return bitmap;
+    }
+
+    public void add(int documentId, int frequency) {
+        if (compressed != null || bitmap != null) {
+            inflate();
+        }
+        positions = null; // appended postings have no positions
+        if (size == documentIds.capacity()) {
+            int capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+            documentIds = IntBuffer.wrap(Arrays.copyOf(documentIds(), capacity));
+            frequencies = IntBuffer.wrap(Arrays.copyOf(frequencies(), capacity));
+        }
+        documentIds.put(size, documentId);
+        frequencies.put(size, frequency);
+        ++size;
     }
 
+    /**
+     * Random access. On a compressed list this decodes the enclosing block on every call, use a {@link Cursor}.
+     */
+    public int documentId(int index) {
+        if (compressed != null) {
+            int[] block = new int[CompressedPostings.BLOCK_SIZE];
+            compressed.decode(index >>> CompressedPostings.BLOCK_SHIFT, block, new int[block.length]);
+            return block[index & (CompressedPostings.BLOCK_SIZE - 1)];
+        }
+        if (bitmap != null) {
+            return bitmap.documentId(index);
+        }
+        return documentIds.get(index);
+    }
+
+    /**
+     * Random access. On a compressed list this decodes the enclosing block on every call, use a {@link Cursor}.
+     */
+    public int frequency(int index) {
+        if (compressed != null) {
+            int[] block = new int[CompressedPostings.BLOCK_SIZE];
+            compressed.decode(index >>> CompressedPostings.BLOCK_SHIFT, new int[block.length], block);
+            return block[index & (CompressedPostings.BLOCK_SIZE - 1)];
+        }
+        if (bitmap != null) {
+            return bitmap.frequency(index);
+        }
+        return frequencies.get(index);
+    }
+
+    /**
+     * Intersects two lists ordered by increasing document ID with the {@link IntersectionKernel}.
+     *
+     * @return the common postings, frequencies taken from this list
+     */
     public PostingList intersect(PostingList other) {
-        PostingList answer = new PostingList();
-        int p1Index = 0, p2Index = 0;
-        int compares = 0;
-        while (p1Index < postings.size() && p2Index < other.size()) {
-            Posting p1 = postings.get(p1Index);
-            Posting p2 = other.get(p2Index);
-            if (p1.documentId() == p2.documentId()) {
-                answer.add(p1);
-                ++p1Index;
-                ++p2Index;
-            } else if (p1.documentId() < p2.documentId()) {
-                ++p1Index;
+        int[] positions = new int[Math.min(size, other.size)];
+        int count = IntersectionKernel.get().intersect(documentIdArray(), size, other.documentIdArray(), other.size,
+                positions);
+        return select(positions, count);
+    }
+
+    /**
+     * Unites two lists ordered by increasing document ID with the {@link IntersectionKernel}.
+     *
+     * @return every posting of either list, frequencies taken from this list when both hold a document
+     */
+    public PostingList union(PostingList other) {
+        int[] positions = new int[size + other.size];
+        int[] documentIds = documentIdArray();
+        int[] otherDocumentIds = other.documentIdArray();
+        int count = IntersectionKernel.get().union(documentIds, size, otherDocumentIds, other.size, positions);
+        int[] frequencies = frequencyArray();
+        int[] otherFrequencies = other.frequencyArray();
+        PostingList answer = new PostingList(count);
+        for (int i = 0; i < count; i++) {
+            int position = positions[i];
+            if (position >= 0) {
+                answer.add(documentIds[position], frequencies[position]);
             } else {
-                ++p2Index;
+                answer.add(otherDocumentIds[~position], otherFrequencies[~position]);
             }
-            ++compares;
         }
         return answer;
     }
 
-    @Override
+    private PostingList select(int[] positions, int count) {
+        int[] documentIds = documentIdArray();
+        int[] frequencies = frequencyArray();
+        PostingList answer = new PostingList(count);
+        for (int i = 0; i < count; i++) {
+            answer.add(documentIds[positions[i]], frequencies[positions[i]]);
+        }
+        return answer;
+    }
+
+    /**
+     * Sorts this posting list. The sorted postings are always copied onto the heap, and positions are only kept when
+     * sorting by document ID.
+     *
+     * @param order the order to sort by, ties keep their current relative order
+     */
+    public void sort(Order order) {
+        if (compressed != null || bitmap != null) {
+            inflate();
+        }
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = order.key(documentIds.get(i), frequencies.get(i), i);
+        }
+        Arrays.sort(keys);
+
+        int[] sortedDocumentIds = new int[size];
+        int[] sortedFrequencies = new int[size];
+        int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            int position = (int) keys[i]; // low 32 bits hold the original position
+            sortedDocumentIds[i] = documentIds.get(position);
+            sortedFrequencies[i] = frequencies.get(position);
+            permutation[i] = position;
+        }
+        documentIds = IntBuffer.wrap(sortedDocumentIds);
+        frequencies = IntBuffer.wrap(sortedFrequencies);
+        if (positions != null) {
+            positions = order == Order.DOCUMENT_ID ? positions.permute(permutation) : null;
+        }
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
     public int size() {
-        return postings.size();
+        return size;
     }
 
-    @Override
-    public String toString() {
-        return "PostingList{" +
-                "postings=" + postings +
-                '}';
+    public boolean isEmpty() {
+        return size == 0;
     }
 
-    public List<Integer> documentIds() {
-        return postings.stream().map(Posting::documentId).collect(toList());
+    /**
+     * @return a copy of the document IDs in list order
+     */
+    public int[] documentIds() {
+        if (compressed != null) {
+            int[] values = new int[size];
+            decodeAll(values, new int[size]);
+            return values;
+        }
+        if (bitmap != null) {
+            int[] values = new int[size];
+            bitmap.decode(values, new int[size]);
+            return values;
+        }
+        return copy(documentIds);
+    }
+
+    /**
+     * @return the backing array of the document IDs when it can be shared, a copy otherwise
+     */
+    private int[] documentIdArray() {
+        return isSharedArray(documentIds) ? documentIds.array() : documentIds();
+    }
+
+    private int[] frequencyArray() {
+        return isSharedArray(frequencies) ? frequencies.array() : frequencies();
+    }
+
+    private boolean isSharedArray(IntBuffer buffer) {
+        return compressed == null && bitmap == null && buffer.hasArray() && buffer.arrayOffset() == 0;
+    }
+
+    private int[] frequencies() {
+        if (compressed != null) {
+            int[] values = new int[size];
+            decodeAll(new int[size], values);
+            return values;
+        }
+        if (bitmap != null) {
+            int[] values = new int[size];
+            bitmap.decode(new int[size], values);
+            return values;
+        }
+        return copy(frequencies);
+    }
+
+    /**
+     * @return approximate retained heap bytes on a 64-bit JVM with compressed oops, not counting the contents of
+     * memory-mapped or direct buffers
+     */
+    public long heapBytes() {
+        long bytes = 32; // object header and fields
+        if (compressed != null) {
+            bytes += compressed.heapBytes();
+        } else if (bitmap != null) {
+            bytes += bitmap.heapBytes();
+        } else {
+            bytes += bufferBytes(documentIds) + bufferBytes(frequencies);
+        }
+        if (positions != null) {
+            bytes += positions.heapBytes();
+        }
+        return bytes;
+    }
+
+    private static long bufferBytes(IntBuffer buffer) {
+        long bytes = 48; // buffer object
+        if (buffer.hasArray()) {
+            bytes += CompressedPostings.arrayBytes(buffer.array().length, Integer.BYTES);
+        }
+        return bytes;
+    }
+
+    private int[] copy(IntBuffer buffer) {
+        int[] values = new int[size];
+        buffer.duplicate().position(0).get(values);
+        return values;
+    }
+
+    private void decodeAll(int[] documentIds, int[] frequencies) {
+        int[] blockDocumentIds = new int[CompressedPostings.BLOCK_SIZE];
+        int[] blockFrequencies = new int[CompressedPostings.BLOCK_SIZE];
+        for (int block = 0; block < compressed.blocks(); block++) {
+            int count = compressed.decode(block, blockDocumentIds, blockFrequencies);
+            System.arraycopy(blockDocumentIds, 0, documentIds, block << CompressedPostings.BLOCK_SHIFT, count);
+            System.arraycopy(blockFrequencies, 0, frequencies, block << CompressedPostings.BLOCK_SHIFT, count);
+        }
+    }
+
+    private void inflate() {
+        documentIds = IntBuffer.wrap(documentIds());
+        frequencies = IntBuffer.wrap(frequencies());
+        compressed = null;
+        bitmap = null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PostingList{postings=[");
+        for (Cursor cursor = cursor(); !cursor.exhausted(); cursor.next()) {
+            if (cursor.position() > 0) {
+                builder.append(", ");
+            }
+            builder.append(cursor.documentId()).append('/').append(cursor.frequency());
+        }
+        return builder.append("]}").toString();
     }
 
     @Override
@@ -65,21 +379,235 @@ public class PostingList extends AbstractSequentialList<Posting> {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         PostingList that = (PostingList) o;
-        return Objects.equals(postings, that.postings);
+        if (size != that.size) return false;
+        for (Cursor c1 = cursor(), c2 = that.cursor(); !c1.exhausted(); c1.next(), c2.next()) {
+            if (c1.documentId() != c2.documentId() || c1.frequency() != c2.frequency()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(postings);
+        int result = size;
+        for (Cursor cursor = cursor(); !cursor.exhausted(); cursor.next()) {
+            result = 31 * result + cursor.documentId();
+            result = 31 * result + cursor.frequency();
+        }
+        return result;
     }
 
-    @Override
-    public ListIterator<Posting> listIterator(int index) {
-        return postings.listIterator(index);
+    /**
+     * Orderings a posting list can be sorted by. Each ordering packs its sort key into the high 32 bits of a long
+     * and the original position into the low 32 bits, so sorting is stable and allocation free per entry.
+     */
+    public enum Order {
+        DOCUMENT_ID {
+            @Override
+            long key(int documentId, int frequency, int position) {
+                return ((long) documentId << 32) | position;
+            }
+        },
+        FREQUENCY_DESCENDING {
+            @Override
+            long key(int documentId, int frequency, int position) {
+                return ((long) (Integer.MAX_VALUE - frequency) << 32) | position;
+            }
+        };
+
+        abstract long key(int documentId, int frequency, int position);
     }
 
-    @Override
-    public Spliterator<Posting> spliterator() {
-        return postings.spliterator();
+    /**
+     * Forward-only cursor over a posting list. On a compressed list each block is decoded on first access, on a
+     * bitmap the cursor scans for the next set bit.
+     * <p>
+     * {@link #advance(int)} skips ahead using the block table of a compressed list, or skip pointers every
+     * &radic;n entries of an uncompressed list (random access makes those implicit), then gallops inside the
+     * block or skip interval it landed in. On a bitmap it jumps straight to the target's word.
+     */
+    public final class Cursor {
+        private int position;
+        private final int[] blockDocumentIds;
+        private final int[] blockFrequencies;
+        private int decodedBlock = -1;
+        private int bitmapDocumentId; // current document ID of a bitmap cursor
+        private int comparisons;
+
+        private Cursor() {
+            if (compressed != null) {
+                blockDocumentIds = new int[CompressedPostings.BLOCK_SIZE];
+                blockFrequencies = new int[CompressedPostings.BLOCK_SIZE];
+            } else {
+                blockDocumentIds = null;
+                blockFrequencies = null;
+            }
+            if (bitmap != null && size > 0) {
+                bitmapDocumentId = bitmap.nextDocumentId(0);
+            }
+        }
+
+        public boolean exhausted() {
+            return position >= size;
+        }
+
+        public int documentId() {
+            if (blockDocumentIds != null) {
+                return blockDocumentIds[decodeBlock()];
+            }
+            if (bitmap != null) {
+                return bitmapDocumentId;
+            }
+            return documentIds.get(position);
+        }
+
+        public int frequency() {
+            if (blockFrequencies != null) {
+                return blockFrequencies[decodeBlock()];
+            }
+            if (bitmap != null) {
+                return bitmap.frequency(position);
+            }
+            return frequencies.get(position);
+        }
+
+        /**
+         * @return offset of the current position inside its decoded block
+         */
+        private int decodeBlock() {
+            int block = position >>> CompressedPostings.BLOCK_SHIFT;
+            if (block != decodedBlock) {
+                compressed.decode(block, blockDocumentIds, blockFrequencies);
+                decodedBlock = block;
+            }
+            return position & (CompressedPostings.BLOCK_SIZE - 1);
+        }
+
+        public void next() {
+            if (++position < size && bitmap != null) {
+                bitmapDocumentId = bitmap.nextDocumentId(bitmapDocumentId + 1);
+            }
+        }
+
+        public int position() {
+            return position;
+        }
+
+        /**
+         * Decodes the word positions of the current posting, only valid if the list {@link #hasPositions()}.
+         *
+         * @param buffer receives the positions in increasing order, must hold {@link #frequency()} entries
+         * @return number of positions
+         */
+        public int positions(int[] buffer) {
+            return positions.decode(position, buffer);
+        }
+
+        /**
+         * @return size of the posting list this cursor walks
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return number of document ID comparisons made by {@link #advance(int)} so far
+         */
+        public int comparisons() {
+            return comparisons;
+        }
+
+        /**
+         * Moves to the first posting whose document ID is at least {@code target}, never moving backwards.
+         * Only valid on lists ordered by increasing document ID.
+         *
+         * @param target document ID to advance to
+         */
+        public void advance(int target) {
+            if (exhausted()) {
+                return;
+            }
+            ++comparisons;
+            if (documentId() >= target) {
+                return;
+            }
+            if (bitmap != null) {
+                bitmapDocumentId = bitmap.nextDocumentId(target);
+                position = bitmapDocumentId < 0 ? size : bitmap.rank(bitmapDocumentId);
+                return;
+            }
+
+            int end; // exclusive end of the range to gallop in
+            if (compressed != null) {
+                int block = position >>> CompressedPostings.BLOCK_SHIFT;
+                int lastBlock = compressed.blocks() - 1;
+                while (block < lastBlock && compressed.blockMaxDocumentId(block) < target) { // skip whole blocks
+                    ++comparisons;
+                    ++block;
+                }
+                ++comparisons;
+                if (compressed.blockMaxDocumentId(block) < target) {
+                    position = size;
+                    return;
+                }
+                end = Math.min(size, (block + 1) << CompressedPostings.BLOCK_SHIFT);
+                if (position < block << CompressedPostings.BLOCK_SHIFT) {
+                    position = block << CompressedPostings.BLOCK_SHIFT;
+                    ++comparisons;
+                    if (documentId() >= target) { // first posting of the new block already reaches target
+                        return;
+                    }
+                }
+                decodeBlock();
+            } else {
+                int skip = Math.max(1, (int) Math.sqrt(size));
+                int next = (position / skip + 1) * skip;
+                while (next < size && documentIds.get(next) < target) { // follow skip pointers
+                    ++comparisons;
+                    position = next;
+                    next += skip;
+                }
+                if (next < size) {
+                    ++comparisons; // the skip pointer that stopped us
+                }
+                end = Math.min(size, next);
+            }
+
+            // gallop: position holds a document ID below target, find a bound holding one at or above it
+            int low = position;
+            int bound = 1;
+            while (low + bound < end && documentIdAt(low + bound) < target) {
+                ++comparisons;
+                low += bound;
+                bound <<= 1;
+            }
+            int high = Math.min(low + bound, end); // documentIdAt(high) >= target, or high == end
+            if (low + bound < end) {
+                ++comparisons;
+            }
+
+            // binary search (low, high] for the first document ID at or above target
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                ++comparisons;
+                if (documentIdAt(mid) < target) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            position = high;
+        }
+
+        /**
+         * Reads a document ID in the current skip interval, or in the block that is currently decoded.
+         */
+        private int documentIdAt(int index) {
+            if (blockDocumentIds != null) {
+                return blockDocumentIds[index & (CompressedPostings.BLOCK_SIZE - 1)];
+            }
+            return documentIds.get(index);
+        }
     }
 }
@@ -0,0 +1,76 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Reports the heap bytes per posting of a text index under each posting list representation, and the heap bytes
+ * per term of its term dictionary as a hash map and as a {@link TermDictionary}.
+ * Sizes assume a 64-bit JVM with compressed oops and compact strings.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class PostingListSizeReport {
+    private static final long LINKED_LIST_BYTES = 32 + 16; // LinkedList plus its wrapper
+    private static final long LINKED_NODE_BYTES = 24 + 24; // LinkedList$Node plus Posting(int, int)
+    private static final long MAP_BYTES = 56; // LinkedHashMap
+    private static final long MAP_ENTRY_BYTES = 40; // LinkedHashMap$Entry
+    private static final long STRING_BYTES = 24; // String without its byte[]
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: PostingListSizeReport <text index file>");
+            System.exit(1);
+        }
+
+        Map<String, PostingList> index;
+        try {
+            index = Index.parseText(args[0], PostingList.Order.DOCUMENT_ID);
+        } catch (IOException e) {
+            System.err.println("IOException when reading index file: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+            return;
+        }
+
+        long postings = 0;
+        long linkedListBytes = 0;
+        long arrayBytes = 0;
+        long compressedBytes = 0;
+        long adaptiveBytes = 0;
+        long offHeapBytes = 0;
+        PostingArena arena = new PostingArena(PostingArena.bytes(index.values()));
+        long mapBytes = MAP_BYTES
+                + CompressedPostings.arrayBytes(Integer.highestOneBit((int) (index.size() / 0.75f) * 2 - 1), 4);
+        for (String term : index.keySet()) {
+            mapBytes += MAP_ENTRY_BYTES + STRING_BYTES
+                    + CompressedPostings.arrayBytes(term.getBytes(StandardCharsets.UTF_8).length, 1);
+        }
+        for (PostingList postingList : index.values()) {
+            postings += postingList.size();
+            linkedListBytes += LINKED_LIST_BYTES + LINKED_NODE_BYTES * postingList.size();
+            arrayBytes += new PostingList(postingList).heapBytes(); // trimmed to size
+            compressedBytes += postingList.compress().heapBytes();
+            adaptiveBytes += new PostingList(postingList).adaptContainer().heapBytes();
+            offHeapBytes += postingList.offHeap(arena).heapBytes();
+        }
+
+        System.out.println(index.size() + " terms, " + postings + " postings");
+        print("LinkedList<Posting>", linkedListBytes, postings);
+        print("int arrays", arrayBytes, postings);
+        print("compressed blocks", compressedBytes, postings);
+        print("bitmaps when dense", adaptiveBytes, postings);
+        print("off heap, heap part", offHeapBytes, postings);
+        print("off heap, postings", arena.usedBytes(), postings);
+        print("slabs (" + NativeMemory.get().name() + ")", arena.allocatedBytes(), postings);
+        printTerms("LinkedHashMap", mapBytes, index.size());
+        printTerms("front-coded", TermDictionary.of(index).heapBytes(), index.size());
+    }
+
+    private static void print(String representation, long bytes, long postings) {
+        System.out.printf("%-20s %,12d bytes %8.2f bytes/posting%n", representation, bytes, (double) bytes / postings);
+    }
+
+    private static void printTerms(String dictionary, long bytes, int terms) {
+        System.out.printf("%-20s %,12d bytes %8.2f bytes/term%n", dictionary, bytes, (double) bytes / terms);
+    }
+}
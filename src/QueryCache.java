@@ -0,0 +1,289 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of query results in front of the evaluators.
+ * <p>
+ * AND and OR are commutative, so a query is keyed on its evaluator, its operator and its sorted, de-duplicated
+ * terms: {@code "hand hard"} and {@code "hard hand hard"} share an entry. A hit reports the request's own terms
+ * with the documents and comparison counts of the evaluation that filled the entry. Entries are evicted least
+ * recently used first; the cache is bounded either by entry count or by estimated bytes. With the TinyLFU policy a
+ * new entry is only admitted when a frequency sketch has seen its key more often than the entry it would evict.
+ * <p>
+ * Optionally the intersection of the two shortest posting lists of a document-at-a-time AND with three or more
+ * terms is cached as well, so queries that share their rarest pair reuse it.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class QueryCache {
+    public static final String SIZE_PROPERTY = "query.cache.size";
+    public static final String BOUND_PROPERTY = "query.cache.bound";
+    public static final String POLICY_PROPERTY = "query.cache.policy";
+    public static final String INTERSECTIONS_PROPERTY = "query.cache.intersections";
+
+    public enum Bound {ENTRIES, BYTES}
+
+    public enum Policy {LRU, TINY_LFU}
+
+    private final long maximumWeight;
+    private final Bound bound;
+    private final boolean cacheIntersections;
+    private final FrequencySketch sketch; // null unless the policy is TinyLFU
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param maximumWeight      maximum number of entries or bytes, 0 disables caching
+     * @param bound              what maximumWeight counts
+     * @param policy             admission policy
+     * @param cacheIntersections whether to also cache pairwise intersections of DAAT AND queries
+     */
+    public QueryCache(long maximumWeight, Bound bound, Policy policy, boolean cacheIntersections) {
+        this.maximumWeight = maximumWeight;
+        this.bound = bound;
+        this.cacheIntersections = cacheIntersections;
+        this.sketch = policy == Policy.TINY_LFU && maximumWeight > 0
+                ? new FrequencySketch(bound == Bound.ENTRIES ? maximumWeight : maximumWeight / 256)
+                : null;
+    }
+
+    /**
+     * Configures a cache from the {@code query.cache.*} system properties. Caching is disabled unless
+     * {@link #SIZE_PROPERTY} is set.
+     */
+    public static QueryCache fromSystemProperties() {
+        return new QueryCache(Long.getLong(SIZE_PROPERTY, 0),
+                Bound.valueOf(System.getProperty(BOUND_PROPERTY, "entries").toUpperCase()),
+                Policy.valueOf(System.getProperty(POLICY_PROPERTY, "lru").toUpperCase().replace("TINYLFU", "TINY_LFU")),
+                Boolean.getBoolean(INTERSECTIONS_PROPERTY));
+    }
+
+    /**
+     * @return an empty cache configured like this one, for an index whose contents changed
+     */
+    public QueryCache emptyCopy() {
+        return new QueryCache(maximumWeight, bound, sketch != null ? Policy.TINY_LFU : Policy.LRU, cacheIntersections);
+    }
+
+    public boolean isEnabled() {
+        return maximumWeight > 0;
+    }
+
+    public QueryResult and(Index evaluator, String[] queryTerms) {
+        if (cacheIntersections && evaluator instanceof DocumentAtATime) {
+            return get(key(evaluator, "AND", queryTerms), queryTerms,
+                    () -> andWithCachedIntersection((DocumentAtATime) evaluator, queryTerms));
+        }
+        return get(key(evaluator, "AND", queryTerms), queryTerms, () -> evaluator.and(queryTerms));
+    }
+
+    public QueryResult or(Index evaluator, String[] queryTerms) {
+        return get(key(evaluator, "OR", queryTerms), queryTerms, () -> evaluator.or(queryTerms));
+    }
+
+    private QueryResult get(String key, String[] queryTerms, Supplier<QueryResult> evaluation) {
+        if (!isEnabled()) {
+            return evaluation.get();
+        }
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return entry.result.withQueryTerms(queryTerms);
+        }
+        QueryResult result = evaluation.get();
+        store(key, new Entry(result, null));
+        return result;
+    }
+
+    private QueryResult andWithCachedIntersection(DocumentAtATime evaluator, String[] queryTerms) {
+        List<PostingList> queryTermsPostings = evaluator.postingLists(queryTerms);
+        String[] distinct = new TreeSet<>(Arrays.asList(queryTerms)).toArray(new String[0]);
+        if (queryTermsPostings.size() != queryTerms.length || distinct.length < 3) {
+            return evaluator.and(queryTerms);
+        }
+
+        String[] bySize = distinct.clone();
+        Arrays.sort(bySize, Comparator.comparingInt((String term) -> evaluator.postingList(term).get().size()));
+        String pairKey = key(evaluator, "AND", new String[]{bySize[0], bySize[1]}) + " (intersection)";
+
+        Entry pair = lookup(pairKey);
+        if (pair == null) {
+            pair = new Entry(null, evaluator.postingList(bySize[0]).get()
+                    .intersect(evaluator.postingList(bySize[1]).get()));
+            store(pairKey, pair);
+        }
+
+        List<PostingList> remaining = new ArrayList<>();
+        remaining.add(pair.postings);
+        for (int i = 2; i < bySize.length; i++) {
+            remaining.add(evaluator.postingList(bySize[i]).get());
+        }
+        return evaluator.and(queryTerms, remaining);
+    }
+
+    private synchronized Entry lookup(String key) {
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    private synchronized void store(String key, Entry entry) {
+        long entryWeight = bound == Bound.ENTRIES ? 1 : entry.bytes(key);
+        if (entryWeight > maximumWeight || entries.containsKey(key)) {
+            return;
+        }
+        // find the victims first, so the entry is admitted over all of them or the cache is left as it was
+        int victims = 0;
+        long freed = 0;
+        int frequency = sketch == null ? 0 : sketch.frequency(key);
+        for (Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+             weight - freed + entryWeight > maximumWeight && eldest.hasNext(); ++victims) {
+            Map.Entry<String, Entry> victim = eldest.next();
+            if (sketch != null && frequency <= sketch.frequency(victim.getKey())) {
+                rejections.increment(); // a victim is used at least as often, keep them all
+                return;
+            }
+            freed += bound == Bound.ENTRIES ? 1 : victim.getValue().bytes(victim.getKey());
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        for (int i = 0; i < victims; i++) {
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+        weight -= freed;
+        entries.put(key, entry);
+        weight += entryWeight;
+    }
+
+    private static String key(Index evaluator, String operator, String[] queryTerms) {
+        return evaluator.getClass().getSimpleName() + " " + operator + " "
+                + String.join(" ", new TreeSet<>(Arrays.asList(queryTerms)));
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{" +
+                "entries=" + entries.size() +
+                ", weight=" + weight + "/" + maximumWeight + " " + bound.name().toLowerCase() +
+                ", hits=" + hits() +
+                ", misses=" + misses() +
+                ", evictions=" + evictions() +
+                ", rejections=" + rejections() +
+                '}';
+    }
+
+    /**
+     * A cached query result, or a cached intermediate intersection.
+     */
+    private static final class Entry {
+        private final QueryResult result;
+        private final PostingList postings;
+
+        private Entry(QueryResult result, PostingList postings) {
+            this.result = result;
+            this.postings = postings;
+        }
+
+        /**
+         * @return approximate retained heap bytes, including the key
+         */
+        private long bytes(String key) {
+            long bytes = 64 + 40 + 2L * key.length();
+            if (result != null) {
+                bytes += 64 + (result.isFound() ? 16 + 4L * result.documentCount() : 0);
+            }
+            if (postings != null) {
+                bytes += postings.heapBytes();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Count-min sketch of key access frequencies with four rows of saturating counters. Counters are halved after
+     * every ten accesses per counter so the sketch follows recent popularity.
+     */
+    private static final class FrequencySketch {
+        private static final int[] SEEDS = {0x97cb3127, 0xb4b82e23, 0x8b6f1c0d, 0x5bd1e995};
+        private static final int MAX_COUNT = 15;
+
+        private final int[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int samples;
+
+        private FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.max(16, Math.min(1 << 24, expectedEntries)) * 2 - 1);
+            counters = new int[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        private void increment(String key) {
+            for (int row = 0; row < SEEDS.length; row++) {
+                int index = index(key, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    ++counters[row][index];
+                }
+            }
+            if (++samples == sampleSize) {
+                for (int[] row : counters) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>>= 1;
+                    }
+                }
+                samples /= 2;
+            }
+        }
+
+        private int frequency(String key) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, counters[row][index(key, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(String key, int row) {
+            int hash = key.hashCode() * SEEDS[row];
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+}
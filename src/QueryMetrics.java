@@ -0,0 +1,227 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters of query evaluation, per operation such as
+ * {@link DocumentAtATime#FUNCTION_AND}. An evaluator starts a {@link Trace} per query, marks the end of each
+ * {@link Stage} it goes through and finishes the trace with the result. Stages an evaluation does not have on its
+ * own, such as cursor setup in term-at-a-time evaluation, are left out of that operation's stage histograms.
+ * <p>
+ * Recording costs a few {@link System#nanoTime()} calls and atomic increments per query, so metrics are on unless
+ * {@link #ENABLED_PROPERTY} is false. They are exported in the Prometheus text format to the file named by
+ * {@link #FILE_PROPERTY} at the end of a batch run, by the {@code METRICS} command of the {@link QueryServer}, and
+ * over HTTP at {@code /metrics} on the loopback port named by {@link #PORT_PROPERTY}.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public final class QueryMetrics {
+    public static final String ENABLED_PROPERTY = "query.metrics";
+    public static final String FILE_PROPERTY = "query.metrics.file";
+    public static final String PORT_PROPERTY = "query.metrics.port";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * Parts of an evaluation timed separately.
+     */
+    public enum Stage {
+        LOOKUP,      // finding the posting lists of the query terms
+        CURSORS,     // setting up cursors over them
+        MERGE,       // intersecting or merging the lists
+        MATERIALIZE; // turning the matches into a sorted result
+
+        private final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final QueryMetrics INSTANCE = new QueryMetrics(!"false".equalsIgnoreCase(
+            System.getProperty(ENABLED_PROPERTY)));
+
+    private final boolean enabled;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    private QueryMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static QueryMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param operation function name of the evaluation
+     * @return a trace timing one evaluation from now on, not to be shared between threads
+     */
+    public Trace start(String operation) {
+        return enabled ? new Trace(operations.computeIfAbsent(operation, o -> new Operation())) : Trace.DISABLED;
+    }
+
+    /**
+     * Timing of one evaluation.
+     */
+    public static final class Trace {
+        static final Trace DISABLED = new Trace(null); // records nothing
+
+        private final Operation operation; // null when metrics are disabled
+        private final long startNanos;
+        private long stageNanos;
+        private long scanned;
+
+        private Trace(Operation operation) {
+            this.operation = operation;
+            this.startNanos = operation == null ? 0 : System.nanoTime();
+            this.stageNanos = startNanos;
+        }
+
+        /**
+         * Records the time since the previous stage, or since the start, as the time of a stage.
+         */
+        public void stage(Stage stage) {
+            if (operation != null) {
+                long now = System.nanoTime();
+                operation.stages[stage.ordinal()].record(now - stageNanos);
+                stageNanos = now;
+            }
+        }
+
+        /**
+         * @param postings postings the evaluation read or skipped over
+         */
+        public void scanned(long postings) {
+            if (operation != null) {
+                scanned += postings;
+            }
+        }
+
+        /**
+         * Records the time since the previous stage as {@link Stage#MATERIALIZE}, then finishes the trace.
+         *
+         * @return the result
+         */
+        public QueryResult materialized(QueryResult result) {
+            stage(Stage.MATERIALIZE);
+            return finish(result);
+        }
+
+        /**
+         * Records the total time since the start with the counters of the result.
+         *
+         * @return the result
+         */
+        public QueryResult finish(QueryResult result) {
+            if (operation != null) {
+                operation.latency.record(System.nanoTime() - startNanos);
+                operation.comparisons.add(result.comparisons());
+                operation.scanned.add(scanned);
+            }
+            return result;
+        }
+    }
+
+    private static final class Operation {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+        private final LongAdder comparisons = new LongAdder();
+        private final LongAdder scanned = new LongAdder();
+
+        Operation() {
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * @return every metric in the Prometheus text format, one sample per line
+     */
+    public List<String> export() {
+        Map<String, Operation> operations = new TreeMap<>(this.operations); // sorted for stable exports
+        List<String> lines = new ArrayList<>();
+        lines.add("# TYPE query_latency_nanoseconds summary");
+        operations.forEach((name, operation) -> summary(lines, "query_latency_nanoseconds",
+                "operation=\"" + name + "\"", operation.latency));
+        lines.add("# TYPE query_stage_nanoseconds summary");
+        operations.forEach((name, operation) -> {
+            for (Stage stage : Stage.values()) {
+                if (operation.stages[stage.ordinal()].count() > 0) {
+                    summary(lines, "query_stage_nanoseconds", "operation=\"" + name + "\",stage=\"" + stage.label + "\"",
+                            operation.stages[stage.ordinal()]);
+                }
+            }
+        });
+        lines.add("# TYPE query_comparisons_total counter");
+        operations.forEach((name, operation) -> lines.add(
+                "query_comparisons_total{operation=\"" + name + "\"} " + operation.comparisons.sum()));
+        lines.add("# TYPE query_postings_scanned_total counter");
+        operations.forEach((name, operation) -> lines.add(
+                "query_postings_scanned_total{operation=\"" + name + "\"} " + operation.scanned.sum()));
+        return lines;
+    }
+
+    private static void summary(List<String> lines, String metric, String labels, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            lines.add(metric + "{" + labels + ",quantile=\"" + quantile + "\"} " + histogram.valueAt(quantile));
+        }
+        lines.add(metric + "_max{" + labels + "} " + histogram.max());
+        lines.add(metric + "_sum{" + labels + "} " + histogram.sum());
+        lines.add(metric + "_count{" + labels + "} " + histogram.count());
+    }
+
+    /**
+     * Writes {@link #export()} to the file named by {@link #FILE_PROPERTY}, if it is set.
+     */
+    public void writeIfRequested() {
+        String metricsFile = System.getProperty(FILE_PROPERTY);
+        if (metricsFile == null) {
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(metricsFile), StandardCharsets.UTF_8)) {
+            for (String line : export()) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            System.err.println("IOException when writing metrics file: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves {@link #export()} at {@code /metrics} on the loopback port named by {@link #PORT_PROPERTY}, if it is
+     * set, from the HTTP server's own thread.
+     *
+     * @throws IOException when the port cannot be bound
+     */
+    public void serveIfRequested() throws IOException {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null) {
+            return;
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = (String.join("\n", export()) + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        System.out.println("Serving metrics on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/metrics");
+    }
+}
@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Operator tree of a Boolean query such as {@code (a OR b) AND c AND NOT d}.
+ * <p>
+ * Grammar, operators in upper case, NOT binding tightest and OR loosest:
+ * <pre>
+ * or   : and ("OR" and)*
+ * and  : not ("AND"? not)*      adjacent operands are ANDed
+ * not  : "NOT" not | "(" or ")" | term
+ * </pre>
+ * Nested operators of the same kind are flattened while parsing, so {@code a AND (b AND c)} has three children.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public abstract class QueryNode {
+    private static final Pattern SPACE_PATTERN = Pattern.compile("\\s+");
+    private static final Pattern PARENTHESES_PATTERN = Pattern.compile("[()]+");
+    private static final Pattern OPERATOR_PATTERN = Pattern.compile("([()]*)(AND|OR|NOT)([()]*)");
+
+    private QueryNode() {
+    }
+
+    /**
+     * @param line a query line
+     * @return true if the line has a standalone AND, OR or NOT, possibly next to parentheses, rather than being a
+     * plain list of terms; parentheses alone do not make a Boolean query, as terms such as {@code (gatt),} have them
+     */
+    public static boolean isBoolean(String line) {
+        for (String chunk : SPACE_PATTERN.split(line.trim())) {
+            if (OPERATOR_PATTERN.matcher(chunk).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a query on whitespace. A parenthesis is a token of its own when it stands alone, sits next to an
+     * operator, or opens or closes a chunk whose parentheses do not balance, as in {@code (a} and {@code b)}; a
+     * chunk with balanced parentheses such as {@code (b)} or {@code (gatt),} is one term.
+     */
+    private static List<String> tokens(String query) {
+        List<String> tokens = new ArrayList<>();
+        for (String chunk : SPACE_PATTERN.split(query.trim())) {
+            if (chunk.isEmpty()) {
+                continue;
+            }
+            if (PARENTHESES_PATTERN.matcher(chunk).matches()) {
+                parentheses(chunk, tokens);
+                continue;
+            }
+            Matcher operator = OPERATOR_PATTERN.matcher(chunk);
+            if (operator.matches()) {
+                parentheses(operator.group(1), tokens);
+                tokens.add(operator.group(2));
+                parentheses(operator.group(3), tokens);
+                continue;
+            }
+            int open = (int) chunk.chars().filter(c -> c == '(').count();
+            int close = (int) chunk.chars().filter(c -> c == ')').count();
+            int start = 0;
+            int end = chunk.length();
+            while (open > close && start < end && chunk.charAt(start) == '(') { // unbalanced opening parentheses
+                tokens.add("(");
+                ++start;
+                --open;
+            }
+            List<String> closing = new ArrayList<>();
+            while (close > open && end > start && chunk.charAt(end - 1) == ')') { // unbalanced closing parentheses
+                closing.add(")");
+                --end;
+                --close;
+            }
+            if (start < end) {
+                tokens.add(chunk.substring(start, end));
+            }
+            tokens.addAll(closing);
+        }
+        return tokens;
+    }
+
+    private static void parentheses(String parentheses, List<String> tokens) {
+        for (char parenthesis : parentheses.toCharArray()) {
+            tokens.add(String.valueOf(parenthesis));
+        }
+    }
+
+    /**
+     * @param query a Boolean query
+     * @return its operator tree
+     * @throws IllegalArgumentException when the query is not well formed
+     */
+    public static QueryNode parse(String query) {
+        List<String> tokens = tokens(query);
+        Parser parser = new Parser(tokens);
+        QueryNode node = parser.or();
+        if (parser.position < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(parser.position) + "' in: " + query);
+        }
+        return node;
+    }
+
+    public static final class Term extends QueryNode {
+        private final String term;
+
+        Term(String term) {
+            this.term = term;
+        }
+
+        public String term() {
+            return term;
+        }
+
+        @Override
+        public String toString() {
+            return term;
+        }
+    }
+
+    public static final class And extends QueryNode {
+        private final List<QueryNode> children;
+
+        And(List<QueryNode> children) {
+            this.children = Collections.unmodifiableList(children);
+        }
+
+        public List<QueryNode> children() {
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            return join(children, " AND ");
+        }
+    }
+
+    public static final class Or extends QueryNode {
+        private final List<QueryNode> children;
+
+        Or(List<QueryNode> children) {
+            this.children = Collections.unmodifiableList(children);
+        }
+
+        public List<QueryNode> children() {
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            return join(children, " OR ");
+        }
+    }
+
+    public static final class Not extends QueryNode {
+        private final QueryNode child;
+
+        Not(QueryNode child) {
+            this.child = child;
+        }
+
+        public QueryNode child() {
+            return child;
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + (child instanceof Term || child instanceof Not ? child : "(" + child + ")");
+        }
+    }
+
+    private static String join(List<QueryNode> children, String operator) {
+        StringBuilder builder = new StringBuilder();
+        for (QueryNode child : children) {
+            if (builder.length() > 0) {
+                builder.append(operator);
+            }
+            builder.append(child instanceof And || child instanceof Or ? "(" + child + ")" : child.toString());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Recursive descent over the tokens, one method per grammar rule.
+     */
+    private static final class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        QueryNode or() {
+            List<QueryNode> children = new ArrayList<>();
+            add(children, and(), Or.class);
+            while (accept("OR")) {
+                add(children, and(), Or.class);
+            }
+            return children.size() == 1 ? children.get(0) : new Or(children);
+        }
+
+        QueryNode and() {
+            List<QueryNode> children = new ArrayList<>();
+            add(children, not(), And.class);
+            while (position < tokens.size() && !peek("OR") && !peek(")")) {
+                accept("AND");
+                add(children, not(), And.class);
+            }
+            return children.size() == 1 ? children.get(0) : new And(children);
+        }
+
+        QueryNode not() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Query ends where a term was expected");
+            }
+            if (accept("NOT")) {
+                return new Not(not());
+            }
+            if (accept("(")) {
+                QueryNode node = or();
+                if (!accept(")")) {
+                    throw new IllegalArgumentException("Missing ')'");
+                }
+                return node;
+            }
+            String token = tokens.get(position);
+            if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+                throw new IllegalArgumentException("Unexpected '" + token + "' where a term was expected");
+            }
+            ++position;
+            return new Term(token);
+        }
+
+        private static void add(List<QueryNode> children, QueryNode child, Class<? extends QueryNode> operator) {
+            if (operator == And.class && child instanceof And) {
+                children.addAll(((And) child).children);
+            } else if (operator == Or.class && child instanceof Or) {
+                children.addAll(((Or) child).children);
+            } else {
+                children.add(child);
+            }
+        }
+
+        private boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                ++position;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Cost-based planner and evaluator for Boolean queries parsed by {@link QueryNode#parse(String)}.
+ * <p>
+ * Planning flattens each AND into positive operands ordered by estimated size and excluded operands. NOT is pushed
+ * down by De Morgan's laws until it reaches a term or an AND, where it becomes an exclusion cursor that candidates
+ * skip over. A NOT with nothing positive to filter is taken against all documents. Every AND node then picks the
+ * cheapest of word-parallel bitmap evaluation, a merge that steps through every operand, or a galloping leapfrog,
+ * and every OR node the cheaper of bitmap evaluation and a heap merge, from estimates that assume terms occur
+ * independently. The plan is evaluated lazily through {@link DocIdIterator}s, so only the final result is
+ * materialized.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class QueryPlanner {
+    public static final String FUNCTION = "booleanQuery";
+
+    private final Map<String, PostingList> index;
+    private BitSet documents; // every document in the index, found by a scan on first use when not given
+    private PostingList allDocuments;
+
+    /**
+     * @param index term dictionary, posting lists ordered by increasing document ID
+     */
+    public QueryPlanner(Map<String, PostingList> index) {
+        this.index = index;
+    }
+
+    /**
+     * @param index     term dictionary, posting lists ordered by increasing document ID
+     * @param documents every document in the index, not modified
+     */
+    public QueryPlanner(Map<String, PostingList> index, BitSet documents) {
+        this.index = index;
+        this.documents = documents;
+    }
+
+    /**
+     * Parses, plans and evaluates a Boolean query.
+     *
+     * @param query a Boolean query
+     * @return the matching documents, reported under the query as written
+     * @throws IllegalArgumentException when the query is not well formed
+     */
+    public QueryResult evaluate(String query) {
+        String[] queryTerms = {query.trim()};
+        StopWatch stopWatch = StopWatch.createStarted();
+        DocIdIterator documents = plan(QueryNode.parse(query)).iterator();
+        int[] documentIds = documents.toArray(); // the only list built
+        stopWatch.stop();
+        return QueryResult.of(FUNCTION, queryTerms, documentIds, documents.comparisons(), stopWatch);
+    }
+
+    /**
+     * Parses, plans and counts the documents matching a Boolean query without materializing any of them.
+     *
+     * @param query a Boolean query
+     * @return the number of matching documents
+     * @throws IllegalArgumentException when the query is not well formed
+     */
+    public int count(String query) {
+        return plan(QueryNode.parse(query)).iterator().count();
+    }
+
+    public Plan plan(QueryNode query) {
+        if (query instanceof QueryNode.Term) {
+            String term = ((QueryNode.Term) query).term();
+            PostingList postings = index.get(term);
+            return postings == null ? Plan.empty(term) : Plan.leaf(Kind.TERM, term, postings);
+        } else if (query instanceof QueryNode.Or) {
+            return planOr(((QueryNode.Or) query).children());
+        } else if (query instanceof QueryNode.And) {
+            return planAnd(((QueryNode.And) query).children());
+        } else {
+            return planAnd(Collections.singletonList(query));
+        }
+    }
+
+    private Plan planAnd(List<QueryNode> operands) {
+        List<QueryNode> positive = new ArrayList<>();
+        List<QueryNode> negative = new ArrayList<>();
+        for (QueryNode operand : operands) {
+            if (operand instanceof QueryNode.Not) {
+                negate(((QueryNode.Not) operand).child(), positive, negative);
+            } else {
+                positive.add(operand);
+            }
+        }
+
+        List<Plan> children = positive.stream().map(this::plan).collect(Collectors.toList());
+        if (children.stream().anyMatch(child -> child.kind == Kind.EMPTY)) {
+            return Plan.empty(new QueryNode.And(new ArrayList<>(operands)).toString());
+        }
+        if (children.isEmpty()) {
+            children.add(Plan.leaf(Kind.ALL, "*", allDocuments()));
+        }
+        List<Plan> exclusions = negative.stream()
+                .map(this::plan)
+                .filter(exclusion -> exclusion.kind != Kind.EMPTY)
+                .sorted(Comparator.comparingDouble((Plan exclusion) -> exclusion.cardinality).reversed())
+                .collect(Collectors.toList()); // the largest exclusion is the likeliest to drop a candidate
+        if (children.size() == 1 && exclusions.isEmpty()) {
+            return children.get(0);
+        }
+        children.sort(Comparator.comparingDouble(child -> child.cardinality));
+
+        double documents = documentCount();
+        double cardinality = documents;
+        double childCost = 0;
+        for (Plan child : children) {
+            cardinality *= child.cardinality / documents;
+            childCost += child.cost;
+        }
+
+        double lead = children.get(0).cardinality;
+        double merge = lead; // every operand is stepped through with nextDoc()
+        double gallop = 0;
+        boolean bitmaps = true;
+        long words = Long.MAX_VALUE;
+        for (Plan child : children) {
+            bitmaps &= child.bitmap;
+            words = Math.min(words, child.words);
+        }
+        for (Plan child : children.subList(1, children.size())) {
+            merge += child.cardinality;
+            gallop += child.bitmap ? lead : lead * (1 + log2(1 + child.cardinality / Math.max(1, lead)));
+        }
+        double bitmap = bitmaps ? children.stream().mapToLong(child -> child.words).sum() : Double.MAX_VALUE;
+
+        Strategy strategy = children.size() == 1 ? Strategy.GALLOP : cheapest(bitmap, merge, gallop);
+        double cost = childCost + (strategy == Strategy.BITMAP ? bitmap : strategy == Strategy.MERGE ? merge : gallop);
+        for (Plan exclusion : exclusions) { // each surviving candidate skips ahead in every exclusion
+            cost += exclusion.cost + cardinality * (1 + log2(1 + exclusion.cardinality / Math.max(1, cardinality)));
+            cardinality *= 1 - exclusion.cardinality / documents;
+        }
+        return new Plan(Kind.AND, strategy, null, null, children, exclusions, cardinality, cost,
+                strategy == Strategy.BITMAP && exclusions.isEmpty(), words);
+    }
+
+    /**
+     * Sorts the operand of a NOT into the positive or excluded operands of the enclosing AND.
+     */
+    private static void negate(QueryNode operand, List<QueryNode> positive, List<QueryNode> negative) {
+        if (operand instanceof QueryNode.Not) {
+            positive.add(((QueryNode.Not) operand).child()); // NOT NOT a = a
+        } else if (operand instanceof QueryNode.Or) {
+            for (QueryNode child : ((QueryNode.Or) operand).children()) { // NOT (a OR b) = NOT a AND NOT b
+                negate(child, positive, negative);
+            }
+        } else {
+            negative.add(operand);
+        }
+    }
+
+    private Plan planOr(List<QueryNode> operands) {
+        List<Plan> children = operands.stream()
+                .map(this::plan)
+                .filter(child -> child.kind != Kind.EMPTY)
+                .sorted(Comparator.comparingDouble(child -> child.cardinality))
+                .collect(Collectors.toList());
+        if (children.isEmpty()) {
+            return Plan.empty(new QueryNode.Or(new ArrayList<>(operands)).toString());
+        }
+        if (children.size() == 1) {
+            return children.get(0);
+        }
+
+        double documents = documentCount();
+        double missing = 1; // probability a document is in no child
+        double childCost = 0;
+        double postings = 0;
+        boolean bitmaps = true;
+        long words = 0;
+        for (Plan child : children) {
+            missing *= 1 - child.cardinality / documents;
+            childCost += child.cost;
+            postings += child.cardinality;
+            bitmaps &= child.bitmap;
+            words += child.words;
+        }
+        double merge = postings * (1 + log2(children.size())); // each document ID passes through the heap
+        double bitmap = bitmaps ? words : Double.MAX_VALUE;
+
+        Strategy strategy = cheapest(bitmap, merge, Double.MAX_VALUE);
+        return new Plan(Kind.OR, strategy, null, null, children, Collections.emptyList(),
+                documents * (1 - missing), childCost + Math.min(bitmap, merge), strategy == Strategy.BITMAP, words);
+    }
+
+    private static Strategy cheapest(double bitmap, double merge, double gallop) {
+        if (bitmap <= merge && bitmap <= gallop) {
+            return Strategy.BITMAP;
+        }
+        return merge <= gallop ? Strategy.MERGE : Strategy.GALLOP;
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    private double documentCount() {
+        return Math.max(1, documents().cardinality());
+    }
+
+    private synchronized BitSet documents() {
+        if (documents == null) {
+            documents = new BitSet();
+            for (PostingList postings : index.values()) {
+                for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next()) {
+                    documents.set(cursor.documentId());
+                }
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * @return every document in the index as a posting list, built on first use by a NOT
+     */
+    private synchronized PostingList allDocuments() {
+        if (allDocuments == null) {
+            BitSet documents = documents();
+            PostingList all = new PostingList(documents.cardinality());
+            documents.stream().forEach(documentId -> all.add(documentId, 1));
+            allDocuments = all.adaptContainer();
+        }
+        return allDocuments;
+    }
+
+    enum Kind {
+        TERM, ALL, EMPTY, AND, OR
+    }
+
+    enum Strategy {
+        BITMAP, // word-parallel over bitmaps
+        MERGE,  // AND: leapfrog stepping with nextDoc(), OR: heap merge
+        GALLOP  // AND: leapfrog skipping with advance()
+    }
+
+    /**
+     * A planned node with its estimated number of documents and its estimated cost in document IDs read,
+     * including the cost of its children.
+     */
+    public static final class Plan {
+        private final Kind kind;
+        private final Strategy strategy; // AND and OR only
+        private final String label; // leaves only
+        private final PostingList postings; // leaves only
+        private final List<Plan> children; // in evaluation order
+        private final List<Plan> exclusions;
+        private final double cardinality;
+        private final double cost;
+        private final boolean bitmap; // evaluates to a bitmap
+        private final long words; // 64-bit words of that bitmap
+
+        private Plan(Kind kind, Strategy strategy, String label, PostingList postings, List<Plan> children,
+                     List<Plan> exclusions, double cardinality, double cost, boolean bitmap, long words) {
+            this.kind = kind;
+            this.strategy = strategy;
+            this.label = label;
+            this.postings = postings;
+            this.children = children;
+            this.exclusions = exclusions;
+            this.cardinality = cardinality;
+            this.cost = cost;
+            this.bitmap = bitmap;
+            this.words = words;
+        }
+
+        private static Plan leaf(Kind kind, String label, PostingList postings) {
+            boolean bitmap = postings.isBitmap();
+            return new Plan(kind, null, label, postings, Collections.emptyList(), Collections.emptyList(),
+                    postings.size(), 0, bitmap, bitmap ? postings.bitmap().words() : 0);
+        }
+
+        private static Plan empty(String label) {
+            return new Plan(Kind.EMPTY, null, label, new PostingList(0), Collections.emptyList(),
+                    Collections.emptyList(), 0, 0, false, 0);
+        }
+
+        public double cardinality() {
+            return cardinality;
+        }
+
+        public double cost() {
+            return cost;
+        }
+
+        /**
+         * Builds the lazy iterator tree of the plan, see {@link DocIdIterator}. AND nodes leapfrog their children,
+         * galloping unless the strategy is a merge, and an AND or OR of stored bitmaps only is computed a word at a
+         * time when the strategy is the bitmap one.
+         *
+         * @return the matching documents, not yet read
+         */
+        public DocIdIterator iterator() {
+            if (postings != null) {
+                return DocIdIterator.of(postings);
+            }
+            DocIdIterator documents;
+            if (strategy == Strategy.BITMAP && children.stream().allMatch(child -> child.postings != null
+                    && child.postings.isBitmap())) {
+                List<PostingList> lists = children.stream().map(child -> child.postings).collect(Collectors.toList());
+                BitmapPostings result = kind == Kind.AND ? BitmapPostings.and(bitmaps(lists))
+                        : BitmapPostings.or(bitmaps(lists));
+                documents = DocIdIterator.of(new PostingList(result), words(lists));
+            } else {
+                List<DocIdIterator> operands = children.stream().map(Plan::iterator).collect(Collectors.toList());
+                documents = kind == Kind.AND ? DocIdIterator.and(operands, strategy != Strategy.MERGE)
+                        : DocIdIterator.or(operands);
+            }
+            if (exclusions.isEmpty()) {
+                return documents;
+            }
+            return DocIdIterator.andNot(documents, DocIdIterator.or(
+                    exclusions.stream().map(Plan::iterator).collect(Collectors.toList())));
+        }
+
+        private static BitmapPostings[] bitmaps(List<PostingList> lists) {
+            return lists.stream().map(PostingList::bitmap).toArray(BitmapPostings[]::new);
+        }
+
+        private static int words(List<PostingList> lists) {
+            return lists.stream().mapToInt(list -> list.bitmap().words()).sum();
+        }
+
+        /**
+         * @return the plan as indented lines, one per node, with the strategy and estimates of each
+         */
+        public List<String> explain() {
+            List<String> lines = new ArrayList<>();
+            explain(lines, "");
+            return lines;
+        }
+
+        private void explain(List<String> lines, String indent) {
+            StringBuilder line = new StringBuilder(indent).append(kind);
+            if (strategy != null) {
+                line.append(' ').append(strategy.name().toLowerCase());
+            }
+            if (label != null) {
+                line.append(' ').append(label);
+            }
+            line.append(": ").append(Math.round(cardinality)).append(" documents estimated");
+            if (strategy != null) {
+                line.append(", cost ").append(Math.round(cost));
+            }
+            if (bitmap) {
+                line.append(", bitmap");
+            }
+            lines.add(line.toString());
+            for (Plan child : children) {
+                child.explain(lines, indent + "  ");
+            }
+            for (Plan exclusion : exclusions) {
+                lines.add(indent + "  NOT");
+                exclusion.explain(lines, indent + "    ");
+            }
+        }
+    }
+}
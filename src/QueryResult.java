@@ -0,0 +1,114 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable outcome of evaluating one Boolean query, returned by {@link Index#and(String[])} and
+ * {@link Index#or(String[])} so concurrent requests never share output state.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class QueryResult {
+    private final String function;
+    private final String[] queryTerms;
+    private final int[] documentIds; // sorted, null when no document matched
+    private final int comparisons;
+    private final Integer optimizedComparisons;
+    private final long elapsedNanos;
+
+    private QueryResult(String function, String[] queryTerms, int[] documentIds, int comparisons,
+                        Integer optimizedComparisons, long elapsedNanos) {
+        this.function = function;
+        this.queryTerms = queryTerms.clone();
+        this.documentIds = documentIds;
+        this.comparisons = comparisons;
+        this.optimizedComparisons = optimizedComparisons;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public static QueryResult notFound(String function, String[] queryTerms) {
+        return new QueryResult(function, queryTerms, null, 0, null, 0);
+    }
+
+    /**
+     * @param result               matching postings in any order, an empty list means not found
+     * @param optimizedComparisons comparisons of the optimized evaluation, or null if there is none
+     * @param stopWatch            stopped watch timing the evaluation
+     */
+    public static QueryResult of(String function, String[] queryTerms, PostingList result, int comparisons,
+                                 Integer optimizedComparisons, StopWatch stopWatch) {
+        if (result.isEmpty()) {
+            return notFound(function, queryTerms);
+        }
+        int[] documentIds = result.documentIds();
+        Arrays.sort(documentIds);
+        return new QueryResult(function, queryTerms, documentIds, comparisons, optimizedComparisons,
+                stopWatch.elapsed(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * @param documentIds matching document IDs in increasing order, owned by the result, empty means not found
+     * @param stopWatch   stopped watch timing the evaluation
+     */
+    static QueryResult of(String function, String[] queryTerms, int[] documentIds, int comparisons,
+                          StopWatch stopWatch) {
+        if (documentIds.length == 0) {
+            return notFound(function, queryTerms);
+        }
+        return new QueryResult(function, queryTerms, documentIds, comparisons, null,
+                stopWatch.elapsed(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * @return the same result reported for the given query terms, used when answering from a cache
+     */
+    public QueryResult withQueryTerms(String[] queryTerms) {
+        return new QueryResult(function, queryTerms, documentIds, comparisons, optimizedComparisons, elapsedNanos);
+    }
+
+    public String function() {
+        return function;
+    }
+
+    public String[] queryTerms() {
+        return queryTerms.clone();
+    }
+
+    public boolean isFound() {
+        return documentIds != null;
+    }
+
+    /**
+     * @return matching document IDs in increasing order, or null when not found
+     */
+    public int[] documentIds() {
+        return documentIds == null ? null : documentIds.clone();
+    }
+
+    public int documentCount() {
+        return documentIds == null ? 0 : documentIds.length;
+    }
+
+    public int comparisons() {
+        return comparisons;
+    }
+
+    public Integer optimizedComparisons() {
+        return optimizedComparisons;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResult{" +
+                "function='" + function + '\'' +
+                ", queryTerms=" + Arrays.toString(queryTerms) +
+                ", documentIds=" + Arrays.toString(documentIds) +
+                ", comparisons=" + comparisons +
+                ", optimizedComparisons=" + optimizedComparisons +
+                ", elapsedNanos=" + elapsedNanos +
+                '}';
+    }
+}
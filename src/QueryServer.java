@@ -0,0 +1,348 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Long-running query server that keeps the index resident and answers clients over a loopback socket.
+ * <p>
+ * Line protocol, one request per line:
+ * <pre>
+ * AND term...        document-at-a-time AND
+ * OR term...         document-at-a-time OR, a term such as perel* standing for every term starting with perel
+ * TAAT_AND term...   term-at-a-time AND
+ * TAAT_OR term...    term-at-a-time OR
+ * RANKED k term...   k best documents by BM25, document-at-a-time with Block-Max WAND
+ * PHRASE term...     documents holding the terms as a phrase, needs a positional index
+ * NEAR k term...     documents holding the terms within k positions of each other, needs a positional index
+ * POSTINGS term...   posting lists of each term
+ * TOPK k             k terms with the longest posting lists
+ * TERMS prefix       terms starting with the prefix, in term order
+ * RANGE from to      terms from the first up to the second exclusive, in term order
+ * QUERY query        Boolean query such as (a OR b) AND c AND NOT d
+ * EXPLAIN query      plan of a Boolean query with its estimates
+ * COUNT query        number of documents matching a Boolean query, counted without building the result
+ * ADD id term...     buffers a new document, each occurrence of a term counting towards its frequency
+ * DELETE id...       buffers deletes of documents
+ * REFRESH            makes buffered documents and deletes visible to queries
+ * STATS              query cache counters and index segments
+ * METRICS            latency histograms and counters of query evaluation, see {@link QueryMetrics}
+ * QUIT               close the connection
+ * </pre>
+ * Each response is the same lines the batch run writes to its log file, terminated by an empty line.
+ * Every request is answered from one {@link SegmentedIndex.Snapshot}, and each snapshot gets an empty query cache.
+ * With {@link ShardedIndex#SHARD_PROPERTY} set the server loads the whole index file but keeps only one shard of it,
+ * for a {@link ShardedIndex} in another JVM to scatter queries to.
+ * Connections are served by a bounded worker pool; a connection that arrives while the pool and its queue are
+ * full is answered with {@code ERROR server busy} and closed.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class QueryServer {
+    private static final Pattern SPACE_PATTERN = Pattern.compile("\\s+");
+    private static final int QUEUED_CONNECTIONS = 64;
+
+    private final SegmentedIndex index;
+    private volatile Evaluators evaluators;
+    private final ExecutorService workers;
+
+    public QueryServer(Map<String, PostingList> index, int threads, QueryCache cache) {
+        this.index = new SegmentedIndex(index);
+        this.evaluators = new Evaluators(this.index.snapshot(), cache);
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUED_CONNECTIONS));
+    }
+
+    /**
+     * Accepts connections until the server socket is closed.
+     */
+    public void serve(ServerSocket serverSocket) throws IOException {
+        try {
+            while (!serverSocket.isClosed()) {
+                Socket socket = serverSocket.accept();
+                try {
+                    workers.execute(() -> handle(socket));
+                } catch (RejectedExecutionException e) {
+                    reject(socket);
+                }
+            }
+        } finally {
+            workers.shutdown();
+            index.close();
+        }
+    }
+
+    /**
+     * @return evaluators over the latest snapshot, created by the first request that sees it
+     */
+    private Evaluators evaluators() {
+        SegmentedIndex.Snapshot snapshot = index.snapshot();
+        Evaluators current = evaluators;
+        if (current.snapshot != snapshot) {
+            synchronized (this) {
+                current = evaluators;
+                if (current.snapshot != snapshot) {
+                    evaluators = current = new Evaluators(snapshot, current.cache.emptyCopy());
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Answers one request line.
+     *
+     * @param request a request in the line protocol
+     * @return a logger holding the response lines, without the terminating empty line
+     */
+    public Logger answer(String request) {
+        Logger logger = new Logger(); // per request, never shared
+        String[] split = SPACE_PATTERN.split(request.trim());
+        String command = split[0].toUpperCase();
+        String[] terms = Arrays.copyOfRange(split, 1, split.length);
+        Evaluators evaluators = evaluators();
+        DocumentAtATime documentAtATime = evaluators.documentAtATime;
+        TermAtATime termAtATime = evaluators.termAtATime;
+        QueryCache cache = evaluators.cache;
+
+        if (command.equals("STATS")) {
+            logger.log(cache.toString());
+            logger.log(evaluators.snapshot.toString());
+            return logger;
+        }
+        if (command.equals("METRICS")) {
+            QueryMetrics.get().export().forEach(logger::log);
+            return logger;
+        }
+        if (command.equals("REFRESH")) {
+            logger.log(index.refresh().toString());
+            return logger;
+        }
+        if (terms.length == 0) {
+            logger.log("ERROR missing arguments");
+            return logger;
+        }
+        switch (command) {
+            case "AND":
+                logger.log(cache.and(documentAtATime, terms));
+                break;
+            case "OR":
+                logger.log(cache.or(documentAtATime, terms));
+                break;
+            case "TAAT_AND":
+                logger.log(cache.and(termAtATime, terms));
+                break;
+            case "TAAT_OR":
+                logger.log(cache.or(termAtATime, terms));
+                break;
+            case "RANKED":
+                try {
+                    int k = Integer.parseInt(terms[0]);
+                    logger.log(evaluators.rankedRetrieval.topK(Arrays.copyOfRange(terms, 1, terms.length), k));
+                } catch (NumberFormatException e) {
+                    logger.log("ERROR not a number: " + terms[0]);
+                }
+                break;
+            case "QUERY":
+                BatchQueryExecutor.booleanQuery(evaluators.planner,
+                        request.trim().substring(split[0].length()).trim(), false, logger);
+                break;
+            case "COUNT":
+                try {
+                    String query = request.trim().substring(split[0].length()).trim();
+                    logger.function("getCount", query);
+                    logger.found(evaluators.planner.count(query));
+                } catch (IllegalArgumentException e) {
+                    logger.log("ERROR invalid query: " + e.getMessage());
+                }
+                break;
+            case "EXPLAIN":
+                try {
+                    evaluators.planner.plan(QueryNode.parse(request.trim().substring(split[0].length()))).explain()
+                            .forEach(logger::log);
+                } catch (IllegalArgumentException e) {
+                    logger.log("ERROR invalid query: " + e.getMessage());
+                }
+                break;
+            case "PHRASE":
+                try {
+                    logger.log(documentAtATime.phrase(terms));
+                } catch (IllegalStateException e) {
+                    logger.log("ERROR " + e.getMessage());
+                }
+                break;
+            case "NEAR":
+                try {
+                    int k = Integer.parseInt(terms[0]);
+                    logger.log(documentAtATime.near(Arrays.copyOfRange(terms, 1, terms.length), k));
+                } catch (NumberFormatException e) {
+                    logger.log("ERROR not a number: " + terms[0]);
+                } catch (IllegalStateException e) {
+                    logger.log("ERROR " + e.getMessage());
+                }
+                break;
+            case "ADD":
+                try {
+                    int documentId = Integer.parseInt(terms[0]);
+                    Map<String, Integer> frequencies = new LinkedHashMap<>();
+                    for (String term : Arrays.copyOfRange(terms, 1, terms.length)) {
+                        frequencies.merge(term, 1, Integer::sum);
+                    }
+                    frequencies.forEach((term, frequency) -> index.add(documentId, term, frequency));
+                    logger.log("OK " + frequencies.size() + " terms buffered");
+                } catch (IllegalArgumentException e) { // including NumberFormatException
+                    logger.log("ERROR " + e.getMessage());
+                }
+                break;
+            case "DELETE":
+                try {
+                    for (String documentId : terms) {
+                        index.delete(Integer.parseInt(documentId));
+                    }
+                    logger.log("OK " + terms.length + " deletes buffered");
+                } catch (NumberFormatException e) {
+                    logger.log("ERROR not a number: " + e.getMessage());
+                }
+                break;
+            case "POSTINGS":
+                for (String term : terms) {
+                    CSE535Assignment.getPostings(documentAtATime, termAtATime, term, logger);
+                }
+                break;
+            case "TOPK":
+                try {
+                    int k = Integer.parseInt(terms[0]);
+                    logger.function("getTopK", k);
+                    logger.result(documentAtATime.topK(k));
+                } catch (NumberFormatException e) {
+                    logger.log("ERROR not a number: " + terms[0]);
+                }
+                break;
+            case "TERMS":
+                logger.function("getTerms", terms[0]);
+                logger.result(terms(documentAtATime.dictionary(), documentAtATime.dictionary().prefix(terms[0])));
+                break;
+            case "RANGE":
+                if (terms.length < 2) {
+                    logger.log("ERROR missing arguments");
+                    break;
+                }
+                logger.function("getTermRange", Arrays.asList(terms[0], terms[1]));
+                logger.result(terms(documentAtATime.dictionary(),
+                        documentAtATime.dictionary().range(terms[0], terms[1])));
+                break;
+            default:
+                logger.log("ERROR unknown command: " + split[0]);
+        }
+        return logger;
+    }
+
+    private static List<String> terms(TermDictionary dictionary, Pair<Integer, Integer> ordinals) {
+        return dictionary.terms(ordinals.first(), ordinals.second());
+    }
+
+    /**
+     * Evaluators over one snapshot, with the query cache for its results.
+     */
+    private static final class Evaluators {
+        private final SegmentedIndex.Snapshot snapshot;
+        private final DocumentAtATime documentAtATime;
+        private final TermAtATime termAtATime;
+        private final RankedRetrieval rankedRetrieval;
+        private final QueryPlanner planner;
+        private final QueryCache cache;
+
+        Evaluators(SegmentedIndex.Snapshot snapshot, QueryCache cache) {
+            this.snapshot = snapshot;
+            this.documentAtATime = new DocumentAtATime(snapshot.index());
+            this.termAtATime = new TermAtATime(snapshot.index());
+            this.rankedRetrieval = new RankedRetrieval(snapshot.index(), snapshot.documentCount());
+            this.planner = new QueryPlanner(snapshot.index(), snapshot.documents());
+            this.cache = cache;
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter writer = new BufferedWriter(
+                     new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String request;
+            while ((request = reader.readLine()) != null) {
+                if (request.trim().equalsIgnoreCase("QUIT")) {
+                    break;
+                }
+                if (request.trim().isEmpty()) {
+                    continue;
+                }
+                answer(request).writeTo(writer);
+                writer.newLine();
+                writer.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("IOException when serving " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (Socket s = socket;
+             BufferedWriter writer = new BufferedWriter(
+                     new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            writer.write("ERROR server busy");
+            writer.newLine();
+            writer.newLine();
+        } catch (IOException e) {
+            System.err.println("IOException when rejecting connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param args index file, port and optionally the number of worker threads
+     */
+    public static void main(String[] args) {
+        if (args.length == 2 || args.length == 3) {
+            int port = Integer.parseInt(args[1]);
+            int threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+            Map<String, PostingList> index = Index.load(args[0]);
+            String shard = System.getProperty(ShardedIndex.SHARD_PROPERTY);
+            if (shard != null) { // i/n, serve only shard i of n
+                int slash = shard.indexOf('/');
+                int shards = Integer.parseInt(shard.substring(slash + 1));
+                index = ShardedIndex.shard(index, ShardedIndex.boundaries(index, shards),
+                        Integer.parseInt(shard.substring(0, slash)));
+            }
+            QueryServer server = new QueryServer(index, threads, QueryCache.fromSystemProperties());
+            try (ServerSocket serverSocket = new ServerSocket(port, QUEUED_CONNECTIONS,
+                    InetAddress.getLoopbackAddress())) {
+                System.out.println("Serving queries on " + serverSocket.getLocalSocketAddress()
+                        + " with " + threads + " workers.");
+                QueryMetrics.get().serveIfRequested();
+                server.serve(serverSocket);
+            } catch (IOException e) {
+                System.err.println("IOException when serving queries: " + e.getMessage());
+                e.printStackTrace();
+                System.exit(1);
+            }
+        } else {
+            System.err.println("Usage: QueryServer <index file> <port> [threads]");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.Arrays;
+
+/**
+ * Immutable outcome of a ranked query: the top documents in decreasing score order.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class RankedResult {
+    private final String function;
+    private final String[] queryTerms;
+    private final int[] documentIds;
+    private final float[] scores;
+    private final int scoredDocuments;
+    private final long elapsedNanos;
+
+    public RankedResult(String function, String[] queryTerms, int[] documentIds, float[] scores,
+                        int scoredDocuments, long elapsedNanos) {
+        this.function = function;
+        this.queryTerms = queryTerms.clone();
+        this.documentIds = documentIds;
+        this.scores = scores;
+        this.scoredDocuments = scoredDocuments;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String function() {
+        return function;
+    }
+
+    public String[] queryTerms() {
+        return queryTerms.clone();
+    }
+
+    public int size() {
+        return documentIds.length;
+    }
+
+    public int documentId(int rank) {
+        return documentIds[rank];
+    }
+
+    public float score(int rank) {
+        return scores[rank];
+    }
+
+    /**
+     * @return number of documents that were fully scored, the rest were skipped by pruning
+     */
+    public int scoredDocuments() {
+        return scoredDocuments;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RankedResult{" +
+                "function='" + function + '\'' +
+                ", queryTerms=" + Arrays.toString(queryTerms) +
+                ", documentIds=" + Arrays.toString(documentIds) +
+                ", scores=" + Arrays.toString(scores) +
+                ", scoredDocuments=" + scoredDocuments +
+                ", elapsedNanos=" + elapsedNanos +
+                '}';
+    }
+}
@@ -0,0 +1,306 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranked document-at-a-time retrieval with BM25 scores and Block-Max WAND pruning.
+ * <p>
+ * The index stores no document lengths, so BM25 runs without length normalisation (b = 0):
+ * {@code score(t, d) = idf(t) * tf * (k1 + 1) / (tf + k1)} with {@code idf(t) = ln(1 + (N - df + 0.5) / (df + 0.5))},
+ * where df is the posting list size (the {@code \c} field of the text index) and N the number of distinct documents.
+ * For every term the maximum score of the whole list and of each block of {@link CompressedPostings#BLOCK_SIZE}
+ * postings is computed on first use. WAND skips every document whose summed list maximums cannot beat the current
+ * k-th best score, and the block maximums skip whole blocks of the remaining candidates.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class RankedRetrieval {
+    public static final String FUNCTION = "docAtATimeQueryRanked";
+
+    private static final float K1 = 1.2f;
+
+    private final Map<String, PostingList> index;
+    private final Map<String, TermScorer> scorers = new ConcurrentHashMap<>(); // built lazily per term
+    private final int documentCount;
+
+    public RankedRetrieval(Map<String, PostingList> index) {
+        this(index, documentCount(index));
+    }
+
+    /**
+     * @param documentCount number of distinct documents in the index, N of the idf
+     */
+    public RankedRetrieval(Map<String, PostingList> index, int documentCount) {
+        this.index = index;
+        this.documentCount = documentCount;
+    }
+
+    private static int documentCount(Map<String, PostingList> index) {
+        BitSet documents = new BitSet();
+        for (PostingList postings : index.values()) {
+            for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next()) {
+                documents.set(cursor.documentId());
+            }
+        }
+        return documents.cardinality();
+    }
+
+    /**
+     * Finds the k highest scoring documents containing at least one query term.
+     *
+     * @param queryTerms query terms, unknown terms are ignored
+     * @param k          number of documents to return
+     * @return the top documents in decreasing score order, ties broken by increasing document ID
+     */
+    public RankedResult topK(String[] queryTerms, int k) {
+        StopWatch stopWatch = StopWatch.createStarted();
+
+        TermScorer[] terms = Arrays.stream(queryTerms)
+                .filter(index::containsKey)
+                .map(term -> scorers.computeIfAbsent(term, t -> new TermScorer(index.get(t))))
+                .toArray(TermScorer[]::new);
+        PostingList.Cursor[] cursors = new PostingList.Cursor[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            cursors[i] = terms[i].postings.cursor();
+        }
+        Integer[] order = new Integer[terms.length]; // term numbers sorted by current document ID
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        TopK topK = new TopK(k);
+        int scoredDocuments = 0;
+        while (k > 0) {
+            sortByDocumentId(order, cursors);
+
+            // pivot: first term at which the summed list maximums can beat the threshold
+            float threshold = topK.threshold();
+            float upperBound = 0;
+            int pivot = -1;
+            for (int i = 0; i < order.length && !cursors[order[i]].exhausted(); i++) {
+                upperBound += terms[order[i]].maxScore;
+                if (upperBound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                break; // no remaining document can enter the top k
+            }
+            int pivotDocumentId = cursors[order[pivot]].documentId();
+            while (pivot + 1 < order.length && !cursors[order[pivot + 1]].exhausted()
+                    && cursors[order[pivot + 1]].documentId() == pivotDocumentId) {
+                ++pivot; // every term positioned on the pivot document takes part
+            }
+
+            // block-max check: can the blocks holding the pivot document beat the threshold?
+            float blockUpperBound = 0;
+            int nextCandidate = Integer.MAX_VALUE;
+            for (int i = 0; i <= pivot; i++) {
+                TermScorer term = terms[order[i]];
+                int block = term.block(pivotDocumentId, cursors[order[i]].position());
+                blockUpperBound += term.blockMaxScores[block];
+                nextCandidate = Math.min(nextCandidate, term.blockLastDocumentIds[block] == Integer.MAX_VALUE
+                        ? Integer.MAX_VALUE : term.blockLastDocumentIds[block] + 1);
+            }
+            if (blockUpperBound <= threshold) {
+                if (pivot + 1 < order.length && !cursors[order[pivot + 1]].exhausted()) {
+                    nextCandidate = Math.min(nextCandidate, cursors[order[pivot + 1]].documentId());
+                }
+                if (nextCandidate == Integer.MAX_VALUE) {
+                    break;
+                }
+                for (int i = 0; i <= pivot; i++) {
+                    cursors[order[i]].advance(nextCandidate);
+                }
+                continue;
+            }
+
+            if (cursors[order[0]].documentId() == pivotDocumentId) { // all terms up to the pivot are on it, score it
+                float score = 0;
+                for (int i = 0; i <= pivot; i++) {
+                    PostingList.Cursor cursor = cursors[order[i]];
+                    score += terms[order[i]].score(cursor.frequency());
+                    cursor.next();
+                }
+                ++scoredDocuments;
+                topK.offer(pivotDocumentId, score);
+            } else {
+                for (int i = 0; i < pivot; i++) { // move lagging terms up to the pivot
+                    cursors[order[i]].advance(pivotDocumentId);
+                }
+            }
+        }
+
+        stopWatch.stop();
+        return topK.result(queryTerms, scoredDocuments, stopWatch.elapsed(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Insertion sort, the number of query terms is small. Exhausted cursors sort last.
+     */
+    private static void sortByDocumentId(Integer[] order, PostingList.Cursor[] cursors) {
+        for (int i = 1; i < order.length; i++) {
+            Integer current = order[i];
+            int documentId = documentId(cursors[current]);
+            int j = i - 1;
+            while (j >= 0 && documentId(cursors[order[j]]) > documentId) {
+                order[j + 1] = order[j];
+                --j;
+            }
+            order[j + 1] = current;
+        }
+    }
+
+    private static int documentId(PostingList.Cursor cursor) {
+        return cursor.exhausted() ? Integer.MAX_VALUE : cursor.documentId();
+    }
+
+    /**
+     * Per-term scoring data: idf, the maximum score of the list and of each block, and the last document ID of
+     * each block.
+     */
+    private final class TermScorer {
+        private final PostingList postings;
+        private final float idf;
+        private final float maxScore;
+        private final float[] blockMaxScores;
+        private final int[] blockLastDocumentIds;
+
+        private TermScorer(PostingList postings) {
+            this.postings = postings;
+            int df = postings.size();
+            this.idf = (float) Math.log(1 + (documentCount - df + 0.5) / (df + 0.5));
+
+            int blocks = (df + CompressedPostings.BLOCK_SIZE - 1) >>> CompressedPostings.BLOCK_SHIFT;
+            blockMaxScores = new float[blocks];
+            blockLastDocumentIds = new int[blocks];
+            float max = 0;
+            for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next()) {
+                int block = cursor.position() >>> CompressedPostings.BLOCK_SHIFT;
+                float score = score(cursor.frequency());
+                blockMaxScores[block] = Math.max(blockMaxScores[block], score);
+                blockLastDocumentIds[block] = cursor.documentId();
+                max = Math.max(max, score);
+            }
+            if (blocks > 0) {
+                blockLastDocumentIds[blocks - 1] = Integer.MAX_VALUE; // the last block covers everything after it
+            }
+            this.maxScore = max;
+        }
+
+        private float score(int frequency) {
+            return idf * frequency * (K1 + 1) / (frequency + K1);
+        }
+
+        /**
+         * @param documentId document ID at or after the cursor position
+         * @param position   current cursor position
+         * @return the block that holds the first posting at or after documentId
+         */
+        private int block(int documentId, int position) {
+            int block = position >>> CompressedPostings.BLOCK_SHIFT;
+            while (blockLastDocumentIds[block] < documentId) {
+                ++block;
+            }
+            return block;
+        }
+    }
+
+    /**
+     * Bounded min-heap of the best k (score, document ID) pairs, the root is the current k-th best.
+     */
+    private static final class TopK {
+        private final int k;
+        private final float[] scores;
+        private final int[] documentIds;
+        private int size;
+
+        private TopK(int k) {
+            this.k = k;
+            this.scores = new float[Math.max(k, 0)];
+            this.documentIds = new int[Math.max(k, 0)];
+        }
+
+        /**
+         * @return the score a document has to beat to enter the heap
+         */
+        private float threshold() {
+            return size < k ? 0 : scores[0];
+        }
+
+        private void offer(int documentId, float score) {
+            if (size < k) {
+                scores[size] = score;
+                documentIds[size] = documentId;
+                siftUp(size++);
+            } else if (worse(scores[0], documentIds[0], score, documentId)) {
+                scores[0] = score;
+                documentIds[0] = documentId;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * @return true if (s1, d1) ranks below (s2, d2): lower score, or equal score and higher document ID
+         */
+        private static boolean worse(float s1, int d1, float s2, int d2) {
+            return s1 < s2 || (s1 == s2 && d1 > d2);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(scores[i], documentIds[i], scores[parent], documentIds[parent])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && worse(scores[child + 1], documentIds[child + 1], scores[child], documentIds[child])) {
+                    ++child;
+                }
+                if (!worse(scores[child], documentIds[child], scores[i], documentIds[i])) {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            float score = scores[i];
+            scores[i] = scores[j];
+            scores[j] = score;
+            int documentId = documentIds[i];
+            documentIds[i] = documentIds[j];
+            documentIds[j] = documentId;
+        }
+
+        private RankedResult result(String[] queryTerms, int scoredDocuments, long elapsedNanos) {
+            int[] rankedDocumentIds = new int[size];
+            float[] rankedScores = new float[size];
+            for (int rank = size - 1; rank >= 0; rank--) { // pop worst first
+                rankedDocumentIds[rank] = documentIds[0];
+                rankedScores[rank] = scores[0];
+                --size;
+                if (size > 0) {
+                    scores[0] = scores[size];
+                    documentIds[0] = documentIds[size];
+                    siftDown(0);
+                }
+            }
+            return new RankedResult(FUNCTION, queryTerms, rankedDocumentIds, rankedScores, scoredDocuments, elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Plain merge of two sorted document ID arrays, one comparison per step. Its static tail methods finish the work of
+ * the vectorized kernel once fewer than a vector of document IDs remain.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+final class ScalarIntersectionKernel implements IntersectionKernel {
+
+    @Override
+    public int intersect(int[] a, int aSize, int[] b, int bSize, int[] positions) {
+        return intersect(a, 0, aSize, b, 0, bSize, positions, 0);
+    }
+
+    @Override
+    public int union(int[] a, int aSize, int[] b, int bSize, int[] positions) {
+        return union(a, 0, aSize, b, 0, bSize, positions, 0);
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    /**
+     * Intersects a[i, aSize) and b[j, bSize), appending positions after the first {@code count}.
+     *
+     * @return the new count
+     */
+    static int intersect(int[] a, int i, int aSize, int[] b, int j, int bSize, int[] positions, int count) {
+        while (i < aSize && j < bSize) {
+            if (a[i] == b[j]) {
+                positions[count++] = i++;
+                ++j;
+            } else if (a[i] < b[j]) {
+                ++i;
+            } else {
+                ++j;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Unites a[i, aSize) and b[j, bSize), appending positions after the first {@code count}.
+     *
+     * @return the new count
+     */
+    static int union(int[] a, int i, int aSize, int[] b, int j, int bSize, int[] positions, int count) {
+        while (i < aSize && j < bSize) {
+            if (a[i] == b[j]) {
+                positions[count++] = i++;
+                ++j;
+            } else if (a[i] < b[j]) {
+                positions[count++] = i++;
+            } else {
+                positions[count++] = ~j++;
+            }
+        }
+        while (i < aSize) {
+            positions[count++] = i++;
+        }
+        while (j < bSize) {
+            positions[count++] = ~j++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,477 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Term dictionary that accepts new postings and deletes while it is being queried.
+ * <p>
+ * The index is a list of immutable segments, oldest first, starting with the base index that was loaded. Writes
+ * go to an in-memory buffer, and {@link #refresh()} turns the buffer into a new segment and publishes a new
+ * {@link Snapshot}. A delete hides a document from every older segment from the next refresh on, so a document can
+ * be deleted and added again. Queries run against one snapshot and never see a refresh or a merge half done.
+ * <p>
+ * Once there are more than {@link #MERGE_FACTOR} segments a background thread merges every segment after the base
+ * into one, log-structured, dropping deleted postings. The base joins the merge when the others add up to a
+ * {@link #MERGE_FACTOR}th of its size, so segment sizes grow geometrically. Queries keep using the snapshot they
+ * hold while a merge runs, a merge is published like a refresh.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class SegmentedIndex implements AutoCloseable {
+    public static final int MERGE_FACTOR = 4;
+
+    private final AtomicReference<Snapshot> current;
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // buffered writes, guarded by this
+    private final Map<String, TreeMap<Integer, Integer>> bufferedPostings = new HashMap<>();
+    private final Map<Integer, Set<String>> bufferedDocuments = new HashMap<>();
+    private final BitSet bufferedDeletes = new BitSet();
+    private boolean merging;
+
+    /**
+     * @param base term dictionary loaded by {@link Index#load(String)}, never modified
+     */
+    public SegmentedIndex(Map<String, PostingList> base) {
+        current = new AtomicReference<>(new Snapshot(0, Collections.singletonList(new Segment(base, new BitSet()))));
+    }
+
+    /**
+     * Buffers a posting until the next {@link #refresh()}.
+     *
+     * @param documentId non-negative document ID
+     * @param term       term the document contains
+     * @param frequency  positive term frequency, replacing any buffered frequency of the same term and document
+     * @throws IllegalArgumentException when the document ID or frequency is out of range
+     * @see #delete(int) to replace a document that is already in the index
+     */
+    public synchronized void add(int documentId, String term, int frequency) {
+        if (documentId < 0 || frequency < 1) {
+            throw new IllegalArgumentException("Invalid posting " + documentId + "/" + frequency + " of " + term);
+        }
+        bufferedPostings.computeIfAbsent(term, t -> new TreeMap<>()).put(documentId, frequency);
+        bufferedDocuments.computeIfAbsent(documentId, d -> new HashSet<>()).add(term);
+    }
+
+    /**
+     * Deletes a document from every segment and from the postings buffered so far, from the next
+     * {@link #refresh()} on.
+     */
+    public synchronized void delete(int documentId) {
+        Set<String> terms = bufferedDocuments.remove(documentId);
+        if (terms != null) {
+            for (String term : terms) {
+                TreeMap<Integer, Integer> postings = bufferedPostings.get(term);
+                postings.remove(documentId);
+                if (postings.isEmpty()) {
+                    bufferedPostings.remove(term);
+                }
+            }
+        }
+        bufferedDeletes.set(documentId);
+    }
+
+    /**
+     * Publishes the buffered writes as a new snapshot, and starts a merge when there are too many segments.
+     *
+     * @return the new snapshot, or the current one when nothing was buffered
+     */
+    public synchronized Snapshot refresh() {
+        Snapshot snapshot = current.get();
+        if (bufferedPostings.isEmpty() && bufferedDeletes.isEmpty()) {
+            return snapshot;
+        }
+
+        List<Segment> segments = new ArrayList<>(snapshot.segments.size() + 1);
+        for (Segment segment : snapshot.segments) {
+            segments.add(segment.withDeletes(bufferedDeletes));
+        }
+        if (!bufferedPostings.isEmpty()) {
+            Map<String, PostingList> postings = new LinkedHashMap<>();
+            new TreeMap<>(bufferedPostings).forEach((term, documents) -> {
+                PostingList postingList = new PostingList(documents.size());
+                documents.forEach(postingList::add);
+                postings.put(term, Index.container(postingList));
+            });
+            segments.add(new Segment(Collections.unmodifiableMap(postings), new BitSet()));
+        }
+        bufferedPostings.clear();
+        bufferedDocuments.clear();
+        bufferedDeletes.clear();
+
+        Snapshot refreshed = new Snapshot(snapshot.generation + 1, segments);
+        current.set(refreshed);
+        if (!merging && segments.size() > MERGE_FACTOR) {
+            merging = true;
+            merger.execute(this::merge);
+        }
+        return refreshed;
+    }
+
+    /**
+     * @return the latest published snapshot, never blocks
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Stops the merge thread, a merge that is running completes.
+     */
+    @Override
+    public void close() {
+        merger.shutdown();
+    }
+
+    /**
+     * Merges until there are at most {@link #MERGE_FACTOR} segments. Runs on the merge thread.
+     */
+    private void merge() {
+        try {
+            mergeSegments();
+        } catch (RuntimeException e) {
+            System.err.println("Exception when merging segments: " + e.getMessage());
+            e.printStackTrace();
+            synchronized (this) {
+                merging = false;
+            }
+        }
+    }
+
+    private void mergeSegments() {
+        while (true) {
+            List<Segment> segments = current.get().segments;
+            int from;
+            synchronized (this) {
+                if (segments.size() <= MERGE_FACTOR) {
+                    merging = false;
+                    return;
+                }
+                long newer = 0;
+                for (Segment segment : segments.subList(1, segments.size())) {
+                    newer += segment.size;
+                }
+                from = newer * MERGE_FACTOR >= segments.get(0).size ? 0 : 1;
+            }
+            List<Segment> run = new ArrayList<>(segments.subList(from, segments.size()));
+            Segment merged = merge(run); // the expensive part, without holding the lock
+            publish(run, merged);
+        }
+    }
+
+    /**
+     * @param run segments to merge, oldest first
+     * @return one segment with the live postings of them all
+     */
+    private static Segment merge(List<Segment> run) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (Segment segment : run) {
+            terms.addAll(segment.postings.keySet());
+        }
+        Map<String, PostingList> postings = new LinkedHashMap<>((int) (terms.size() / 0.75f) + 1);
+        for (String term : terms) {
+            PostingList merged = mergeTerm(run, term);
+            if (merged != null) {
+                postings.put(term, merged);
+            }
+        }
+        return new Segment(Collections.unmodifiableMap(postings), new BitSet());
+    }
+
+    /**
+     * @return the live postings of a term across segments in document ID order, null when there are none
+     */
+    private static PostingList mergeTerm(List<Segment> segments, String term) {
+        PostingList merged = null;
+        boolean copied = false;
+        for (Segment segment : segments) {
+            PostingList stored = segment.postings.get(term);
+            PostingList postings = stored == null ? null : segment.live(stored);
+            if (postings != null && !postings.isEmpty()) {
+                copied |= merged != null || postings != stored;
+                merged = merged == null ? postings : merged.union(postings);
+            }
+        }
+        return copied ? Index.container(merged) : merged;
+    }
+
+    /**
+     * Replaces the merged segments in the current snapshot. Deletes that arrived while merging were not applied
+     * by the merge and carry over to the merged segment, they are newer than anything it holds.
+     */
+    private synchronized void publish(List<Segment> run, Segment merged) {
+        Snapshot snapshot = current.get();
+        List<Segment> segments = new ArrayList<>(snapshot.segments.size());
+        BitSet newDeletes = new BitSet();
+        int position = -1;
+        for (Segment segment : snapshot.segments) {
+            Segment source = run.stream().filter(s -> s.postings == segment.postings).findFirst().orElse(null);
+            if (source == null) {
+                segments.add(segment);
+            } else {
+                BitSet deleted = (BitSet) segment.deleted.clone();
+                deleted.andNot(source.deleted);
+                newDeletes.or(deleted);
+                if (position < 0) {
+                    position = segments.size();
+                    segments.add(merged);
+                }
+            }
+        }
+        segments.set(position, merged.withDeletes(newDeletes));
+        current.set(new Snapshot(snapshot.generation + 1, segments));
+    }
+
+    /**
+     * Immutable posting lists with the documents deleted from them since.
+     */
+    private static final class Segment {
+        private final Map<String, PostingList> postings;
+        private final BitSet deleted; // never modified once the segment is published
+        private final BitSet documents; // documents with postings in the segment, deleted or not
+        private final long size;
+
+        Segment(Map<String, PostingList> postings, BitSet deleted) {
+            this.postings = postings;
+            this.deleted = deleted;
+            this.documents = new BitSet();
+            long size = 0;
+            for (PostingList postingList : postings.values()) {
+                for (PostingList.Cursor cursor = postingList.cursor(); !cursor.exhausted(); cursor.next()) {
+                    documents.set(cursor.documentId());
+                }
+                size += postingList.size();
+            }
+            this.size = size;
+        }
+
+        private Segment(Map<String, PostingList> postings, BitSet deleted, BitSet documents, long size) {
+            this.postings = postings;
+            this.deleted = deleted;
+            this.documents = documents;
+            this.size = size;
+        }
+
+        Segment withDeletes(BitSet deletes) {
+            if (deletes.isEmpty()) {
+                return this;
+            }
+            BitSet union = (BitSet) deleted.clone();
+            union.or(deletes);
+            return new Segment(postings, union, documents, size);
+        }
+
+        /**
+         * @param postings posting list stored in this segment
+         * @return the postings without deleted documents, the stored list itself when none was deleted
+         */
+        PostingList live(PostingList postings) {
+            if (deleted.isEmpty()) {
+                return postings;
+            }
+            PostingList live = null;
+            int position = 0;
+            for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next(), position++) {
+                if (deleted.get(cursor.documentId())) {
+                    if (live == null) { // first deleted posting, copy the ones before it
+                        live = new PostingList(postings.size());
+                        for (PostingList.Cursor before = postings.cursor(); before.position() < position; before.next()) {
+                            live.add(before.documentId(), before.frequency());
+                        }
+                    }
+                } else if (live != null) {
+                    live.add(cursor.documentId(), cursor.frequency());
+                }
+            }
+            return live == null ? postings : live;
+        }
+    }
+
+    /**
+     * A consistent view of the index at one point in time.
+     */
+    public static final class Snapshot {
+        private final long generation;
+        private final List<Segment> segments;
+        private final Map<String, PostingList> index;
+        private final BitSet documents; // live documents, never modified
+
+        private Snapshot(long generation, List<Segment> segments) {
+            this.generation = generation;
+            this.segments = Collections.unmodifiableList(segments);
+            Segment only = segments.get(0);
+            this.index = segments.size() == 1 && only.deleted.isEmpty() ? only.postings : new SnapshotMap(segments);
+            BitSet live = new BitSet();
+            for (Segment segment : segments) {
+                BitSet documents = (BitSet) segment.documents.clone();
+                documents.andNot(segment.deleted);
+                live.or(documents);
+            }
+            this.documents = live;
+        }
+
+        /**
+         * @return number of snapshots published before this one
+         */
+        public long generation() {
+            return generation;
+        }
+
+        public int segments() {
+            return segments.size();
+        }
+
+        /**
+         * @return number of distinct documents with live postings, kept from the segments without reading the index
+         */
+        public int documentCount() {
+            return documents.cardinality();
+        }
+
+        /**
+         * @return a copy of the set of documents with live postings, kept from the segments like
+         * {@link #documentCount()}
+         */
+        public BitSet documents() {
+            return (BitSet) documents.clone();
+        }
+
+        /**
+         * @return the term dictionary of this snapshot for the evaluators, posting lists ordered by document ID
+         */
+        public Map<String, PostingList> index() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Snapshot{generation=").append(generation).append(", segments=[");
+            for (int i = 0; i < segments.size(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                Segment segment = segments.get(i);
+                builder.append(segment.size).append(" postings/").append(segment.deleted.cardinality()).append(" deletes");
+            }
+            return builder.append("]}").toString();
+        }
+    }
+
+    /**
+     * Read-only dictionary over several segments. Each term is merged across segments on first use and kept, terms
+     * missing from every segment are not.
+     */
+    private static final class SnapshotMap extends AbstractMap<String, PostingList> {
+        private final List<Segment> segments;
+        private final Map<String, PostingList> merged = new ConcurrentHashMap<>();
+        private volatile List<String> terms; // in segment order, built on first iteration
+
+        SnapshotMap(List<Segment> segments) {
+            this.segments = segments;
+        }
+
+        @Override
+        public PostingList get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            PostingList postings = merged.get(key);
+            if (postings != null) {
+                return postings;
+            }
+            PostingList live = mergeTerm(segments, (String) key);
+            if (live == null) {
+                return null; // misses are not kept, so the cache only grows with terms of the index
+            }
+            postings = merged.putIfAbsent((String) key, live);
+            return postings == null ? live : postings;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, PostingList>> entrySet() {
+            return new AbstractSet<Entry<String, PostingList>>() {
+                @Override
+                public Iterator<Entry<String, PostingList>> iterator() {
+                    Iterator<String> terms = terms().iterator();
+                    return new Iterator<Entry<String, PostingList>>() {
+                        private Entry<String, PostingList> next = advance();
+
+                        private Entry<String, PostingList> advance() {
+                            while (terms.hasNext()) {
+                                String term = terms.next();
+                                PostingList postings = get(term);
+                                if (postings != null) {
+                                    return new SimpleImmutableEntry<>(term, postings);
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Entry<String, PostingList> next() {
+                            if (next == null) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, PostingList> entry = next;
+                            next = advance();
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (String term : terms()) {
+                        if (get(term) != null) {
+                            ++size;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+
+        private List<String> terms() {
+            List<String> terms = this.terms;
+            if (terms == null) {
+                Set<String> all = new LinkedHashSet<>();
+                for (Segment segment : segments) {
+                    all.addAll(segment.postings.keySet());
+                }
+                this.terms = terms = new ArrayList<>(all);
+            }
+            return terms;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Document-partitioned index: the document ID space is split into contiguous ranges holding about the same number
+ * of documents, and each shard answers queries over its own range with a {@link DocumentAtATime}. AND and OR are
+ * scattered to every shard in parallel and gathered by concatenating the shard results in range order, which keeps
+ * them sorted without a merge.
+ * <p>
+ * Shards run in-process, each on its own executor, or in other local JVMs as {@link QueryServer}s started with
+ * {@link #SHARD_PROPERTY} and reached over loopback. Comparisons of a gathered result are the sum over the shards.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public class ShardedIndex extends Index implements AutoCloseable {
+    /**
+     * System property {@code i/n} that makes a {@link QueryServer} serve only shard i of n of its index file.
+     */
+    public static final String SHARD_PROPERTY = "index.shard";
+
+    private static final Pattern SPACE_PATTERN = Pattern.compile("\\s+");
+
+    private final List<Shard> shards;
+
+    /**
+     * @param index  whole term dictionary, used for posting list lookups, may be empty when the shards are remote
+     * @param shards shards in increasing order of their document ID ranges
+     */
+    public ShardedIndex(Map<String, PostingList> index, List<Shard> shards) {
+        super(index);
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    }
+
+    /**
+     * Splits an index into in-process shards.
+     *
+     * @param index  term dictionary loaded by {@link Index#load(String)}
+     * @param shards number of shards
+     */
+    public static ShardedIndex partition(Map<String, PostingList> index, int shards) {
+        int[] boundaries = boundaries(index, shards);
+        List<Shard> local = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            local.add(new LocalShard(shard, shard(index, boundaries, shard)));
+        }
+        return new ShardedIndex(index, local);
+    }
+
+    /**
+     * Connects to shards served by other JVMs.
+     *
+     * @param addresses query server of each shard in increasing order of their document ID ranges
+     * @throws IOException when a server cannot be reached, connections opened so far are closed
+     */
+    public static ShardedIndex connect(List<InetSocketAddress> addresses) throws IOException {
+        List<Shard> remote = new ArrayList<>(addresses.size());
+        try {
+            for (InetSocketAddress address : addresses) {
+                remote.add(new RemoteShard(address));
+            }
+        } catch (IOException e) {
+            remote.forEach(Shard::close);
+            throw e;
+        }
+        return new ShardedIndex(Collections.emptyMap(), remote);
+    }
+
+    /**
+     * @param index  term dictionary
+     * @param shards number of shards
+     * @return first document ID of each shard after the first, so that shards hold about as many documents
+     */
+    static int[] boundaries(Map<String, PostingList> index, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Invalid number of shards: " + shards);
+        }
+        BitSet documents = new BitSet();
+        for (PostingList postings : index.values()) {
+            for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next()) {
+                documents.set(cursor.documentId());
+            }
+        }
+        int[] boundaries = new int[shards - 1];
+        int count = documents.cardinality();
+        int documentId = documents.nextSetBit(0);
+        for (int seen = 0, shard = 0; shard < boundaries.length; documentId = documents.nextSetBit(documentId + 1)) {
+            if (documentId < 0) { // fewer documents than shards, the last shards stay empty
+                Arrays.fill(boundaries, shard, boundaries.length, Integer.MAX_VALUE);
+                break;
+            }
+            if ((long) seen++ * shards >= (long) (shard + 1) * count) {
+                boundaries[shard++] = documentId;
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * @param index      term dictionary with posting lists ordered by document ID
+     * @param boundaries shard boundaries from {@link #boundaries(Map, int)}
+     * @param shard      shard number
+     * @return the postings of the documents in the shard's range, terms without any left out
+     */
+    static Map<String, PostingList> shard(Map<String, PostingList> index, int[] boundaries, int shard) {
+        if (shard < 0 || shard > boundaries.length) {
+            throw new IllegalArgumentException("No shard " + shard + " of " + (boundaries.length + 1));
+        }
+        int from = shard == 0 ? 0 : boundaries[shard - 1];
+        int to = shard == boundaries.length ? Integer.MAX_VALUE : boundaries[shard];
+        Map<String, PostingList> map = new LinkedHashMap<>();
+        int[] positions = new int[16];
+        for (Map.Entry<String, PostingList> entry : index.entrySet()) {
+            PostingList postings = entry.getValue();
+            PostingList.Cursor cursor = postings.cursor();
+            cursor.advance(from);
+            PostingList range = new PostingList();
+            PositionPostings.Builder rangePositions = postings.hasPositions() ? new PositionPostings.Builder() : null;
+            for (; !cursor.exhausted() && cursor.documentId() < to; cursor.next()) {
+                range.add(cursor.documentId(), cursor.frequency());
+                if (rangePositions != null) {
+                    positions = cursor.frequency() <= positions.length ? positions : new int[cursor.frequency()];
+                    rangePositions.add(positions, cursor.positions(positions));
+                }
+            }
+            if (!range.isEmpty()) {
+                map.put(entry.getKey(), container(rangePositions == null ? range
+                        : range.withPositions(rangePositions.build())));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    public int shards() {
+        return shards.size();
+    }
+
+    @Override
+    public QueryResult and(String[] queryTerms) {
+        return gather(DocumentAtATime.FUNCTION_AND, queryTerms, shard -> shard.and(queryTerms));
+    }
+
+    @Override
+    public QueryResult or(String[] queryTerms) {
+        return gather(DocumentAtATime.FUNCTION_OR, queryTerms, shard -> shard.or(queryTerms));
+    }
+
+    /**
+     * Scatters a query to every shard and concatenates their results in shard order. The query is recorded in the
+     * {@link QueryMetrics} once, end to end, with the time until the last shard answered as its merge stage.
+     */
+    private QueryResult gather(String function, String[] queryTerms,
+                               Function<Shard, CompletableFuture<QueryResult>> query) {
+        QueryMetrics.Trace trace = QueryMetrics.get().start(function);
+        StopWatch stopWatch = StopWatch.createStarted();
+        List<CompletableFuture<QueryResult>> scattered = shards.stream().map(query).collect(toList());
+        List<QueryResult> results;
+        try {
+            results = scattered.stream().map(CompletableFuture::join).collect(toList());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        trace.stage(QueryMetrics.Stage.MERGE);
+        int[] documentIds = new int[results.stream().mapToInt(QueryResult::documentCount).sum()];
+        int count = 0;
+        int comparisons = 0;
+        for (QueryResult result : results) {
+            if (result.isFound()) {
+                int[] shardDocumentIds = result.documentIds();
+                System.arraycopy(shardDocumentIds, 0, documentIds, count, shardDocumentIds.length);
+                count += shardDocumentIds.length;
+            }
+            comparisons += result.comparisons();
+        }
+        stopWatch.stop();
+        return trace.materialized(QueryResult.of(function, queryTerms, documentIds, comparisons, stopWatch));
+    }
+
+    @Override
+    public void close() {
+        shards.forEach(Shard::close);
+    }
+
+    /**
+     * One document ID range of the index, answering queries asynchronously.
+     */
+    public interface Shard extends AutoCloseable {
+        CompletableFuture<QueryResult> and(String[] queryTerms);
+
+        CompletableFuture<QueryResult> or(String[] queryTerms);
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Shard in this JVM, evaluated on its own thread.
+     */
+    static final class LocalShard implements Shard {
+        private final DocumentAtATime documentAtATime;
+        private final ExecutorService executor;
+
+        LocalShard(int shard, Map<String, PostingList> index) {
+            this.documentAtATime = new DocumentAtATime(index);
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shard-" + shard);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public CompletableFuture<QueryResult> and(String[] queryTerms) {
+            return CompletableFuture.supplyAsync(() -> documentAtATime.and(queryTerms, QueryMetrics.Trace.DISABLED),
+                    executor); // recorded once by the gather
+        }
+
+        @Override
+        public CompletableFuture<QueryResult> or(String[] queryTerms) {
+            return CompletableFuture.supplyAsync(() -> documentAtATime.or(queryTerms, QueryMetrics.Trace.DISABLED),
+                    executor); // recorded once by the gather
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Shard served by a {@link QueryServer} in another JVM, over one connection that its own thread uses for one
+     * request at a time.
+     */
+    static final class RemoteShard implements Shard {
+        private final InetSocketAddress address;
+        private final Socket socket;
+        private final BufferedReader reader;
+        private final BufferedWriter writer;
+        private final ExecutorService executor;
+
+        RemoteShard(InetSocketAddress address) throws IOException {
+            this.address = address;
+            this.socket = new Socket(address.getAddress(), address.getPort());
+            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shard-" + address);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public CompletableFuture<QueryResult> and(String[] queryTerms) {
+            return CompletableFuture.supplyAsync(() -> request("AND", DocumentAtATime.FUNCTION_AND, queryTerms),
+                    executor);
+        }
+
+        @Override
+        public CompletableFuture<QueryResult> or(String[] queryTerms) {
+            return CompletableFuture.supplyAsync(() -> request("OR", DocumentAtATime.FUNCTION_OR, queryTerms),
+                    executor);
+        }
+
+        /**
+         * Sends one request and parses the response the server logged for it.
+         */
+        private QueryResult request(String command, String function, String[] queryTerms) {
+            StopWatch stopWatch = StopWatch.createStarted();
+            int[] documentIds = new int[0];
+            int comparisons = 0;
+            try {
+                writer.write(command + " " + String.join(" ", queryTerms));
+                writer.newLine();
+                writer.flush();
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    if (line.startsWith("ERROR")) {
+                        throw new IllegalStateException("Shard " + address + " answered " + line);
+                    } else if (line.endsWith(" comparisons are made")) {
+                        comparisons = Integer.parseInt(line.substring(0, line.indexOf(' ')));
+                    } else if (line.startsWith("Result: ")) {
+                        documentIds = Arrays.stream(line.substring("Result: ".length()).split(", "))
+                                .mapToInt(Integer::parseInt)
+                                .toArray();
+                    }
+                }
+                if (line == null) {
+                    throw new IOException("Shard " + address + " closed the connection");
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            stopWatch.stop();
+            return QueryResult.of(function, queryTerms, documentIds, comparisons, stopWatch);
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                System.err.println("IOException when closing shard " + address + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the AND and OR of every query line against in-process shards of an index file, or against shards served
+     * by other JVMs, and prints them like the batch run.
+     *
+     * @param args query file, then an index file and number of shards, or host:port of each shard in order
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || !args[1].contains(":") && args.length != 3) {
+            System.err.println("Usage: ShardedIndex <query file> <index file> <shards>");
+            System.err.println("       ShardedIndex <query file> <host:port>...");
+            System.exit(1);
+        }
+        List<String[]> queries = Collections.emptyList();
+        try (Stream<String> lines = Files.lines(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            queries = lines.map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .map(SPACE_PATTERN::split)
+                    .collect(toList());
+        } catch (IOException e) {
+            System.err.println("IOException when reading query file: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        try (ShardedIndex index = args[1].contains(":")
+                ? connect(Arrays.stream(args, 1, args.length).map(ShardedIndex::address).collect(toList()))
+                : partition(Index.load(args[1]), Integer.parseInt(args[2]))) {
+            try (Logger logger = Logger.standardOutput()) {
+                for (String[] queryTerms : queries) {
+                    logger.log(index.and(queryTerms));
+                    logger.log(index.or(queryTerms));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("IOException when connecting to shards: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static InetSocketAddress address(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+}
@@ -1,7 +1,9 @@
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Postings ordered by decreasing term frequencies.
@@ -9,84 +11,104 @@ import java.util.List;
  * @author Wasif (wasifale@buffalo.edu).
  */
 public class TermAtATime extends Index {
+    public static final String FUNCTION_AND = "termAtATimeQueryAnd";
+    public static final String FUNCTION_OR = "termAtATimeQueryOr";
 
-    public TermAtATime(String indexFile) {
-        super(indexFile, Comparator.comparingInt(Posting::frequency).reversed()); // sort by decreasing frequency
+    private final Map<String, PostingList> byFrequency = new ConcurrentHashMap<>(); // built lazily per term
+
+    public TermAtATime(Map<String, PostingList> index) {
+        super(index);
     }
 
+    /**
+     * Re-sorts the shared document ID ordered postings of a term by decreasing frequency on first access.
+     */
     @Override
-    public void and(String[] queryTerms) {
-        Logger.function("termAtATimeQueryAnd", queryTerms);
+    public Optional<PostingList> postingList(String term) {
+        return super.postingList(term).map(postings -> byFrequency.computeIfAbsent(term, t -> {
+            PostingList copy = new PostingList(postings);
+            copy.sort(PostingList.Order.FREQUENCY_DESCENDING); // sort by decreasing frequency
+            return copy;
+        }));
+    }
 
+    @Override
+    public QueryResult and(String[] queryTerms) {
+        QueryMetrics.Trace trace = QueryMetrics.get().start(FUNCTION_AND);
         List<PostingList> queryTermsPostings = postingLists(queryTerms);
+        trace.stage(QueryMetrics.Stage.LOOKUP);
 
         if (!queryTermsPostings.isEmpty() && queryTermsPostings.size() == queryTerms.length) {
             StopWatch stopWatch = StopWatch.createStarted();
 
-            Pair<PostingList, Integer> resultPair = and(queryTermsPostings);
+            Pair<PostingList, Integer> resultPair = and(queryTermsPostings, trace);
             PostingList result = resultPair.first(); // intersected result list
             Integer comparisons = resultPair.second(); //comparisons
 
             stopWatch.stop();
 
 
-            Pair<PostingList, Integer> resultOptimized = andOptimized(queryTermsPostings); // optimized
+            Pair<PostingList, Integer> resultOptimized = andOptimized(queryTermsPostings, trace); // optimized
             Integer optimizedComparisons = resultOptimized.second(); // optimized comparisons
+            trace.stage(QueryMetrics.Stage.MERGE);
 
-            logResult(stopWatch, result, comparisons, optimizedComparisons);
+            return trace.materialized(QueryResult.of(FUNCTION_AND, queryTerms, result, comparisons,
+                    optimizedComparisons, stopWatch));
         } else {
-            Logger.notFound();
+            return trace.finish(QueryResult.notFound(FUNCTION_AND, queryTerms));
         }
     }
 
     /**
-     * Performs optimized term-at-a-time AND evaluation by sorting the postings by size.
+     * Performs optimized term-at-a-time AND evaluation, ordering the fetched postings by increasing document
+     * frequency, their size.
      *
      * @param queryTermsPostings query terms postingsList in order of input
      * @return a pair containing merged Postings and the number of comparisons.
      */
-    private Pair<PostingList, Integer> andOptimized(List<PostingList> queryTermsPostings) {
-        List<PostingList> copy = new ArrayList<>(queryTermsPostings);
-        copy.sort(Comparator.comparing(List::size, Comparator.naturalOrder())); // sort the postings
-        return and(copy);
+    private Pair<PostingList, Integer> andOptimized(List<PostingList> queryTermsPostings, QueryMetrics.Trace trace) {
+        return and(bySize(queryTermsPostings), trace);
     }
 
     /**
-     * Performs term-at-a-time AND evaluation.
+     * Performs term-at-a-time AND evaluation with a document accumulator. The first list seeds the candidates;
+     * every later list is scanned once and only counts candidates that matched all lists before it. A list scan
+     * stops as soon as every live candidate has been matched, and evaluation stops once no candidate is left.
      *
      * @param queryTermsPostings query terms postingsList in order of input
+     * @param trace              receives the number of postings scanned
      * @return a pair containing merged Postings and the number of comparisons.
      */
-    private Pair<PostingList, Integer> and(List<PostingList> queryTermsPostings) {
-        PostingList result = new PostingList(queryTermsPostings.get(0));
-        int comparisons = 0;
-        for (int i = 1; i < queryTermsPostings.size(); ++i) {
-            PostingList tempPostingList = new PostingList(result); // intermediate result
-            Iterator<Posting> iterator = tempPostingList.iterator();
-            while (iterator.hasNext()) {
-                Posting tempPosting = iterator.next();
-                boolean exists = false;
-                for (Posting posting : queryTermsPostings.get(i)) {
-                    ++comparisons;
-                    if (posting.documentId() == tempPosting.documentId()) {
-                        exists = true;
-                        break;
-                    }
-                }
-                if (!exists) {
-                    iterator.remove(); // current intermediate posting should not be part of intersection
+    private Pair<PostingList, Integer> and(List<PostingList> queryTermsPostings, QueryMetrics.Trace trace) {
+        PostingList first = queryTermsPostings.get(0);
+        Accumulator accumulator = new Accumulator(first.size());
+        for (PostingList.Cursor cursor = first.cursor(); !cursor.exhausted(); cursor.next()) {
+            accumulator.add(cursor.documentId(), cursor.frequency());
+        }
+        trace.scanned(first.size());
+
+        int candidates = first.size();
+        for (int i = 1; i < queryTermsPostings.size() && candidates > 0; ++i) {
+            int matched = 0;
+            PostingList.Cursor cursor = queryTermsPostings.get(i).cursor();
+            for (; !cursor.exhausted() && matched < candidates; cursor.next()) { // prune once all candidates matched
+                if (accumulator.increment(cursor.documentId(), i, cursor.frequency())) {
+                    ++matched;
                 }
             }
-            result = new PostingList(tempPostingList);
+            trace.scanned(cursor.position());
+            candidates = matched;
         }
-        return new Pair<>(result, comparisons);
+
+        PostingList result = candidates > 0 ? accumulator.collect(queryTermsPostings.size()) : new PostingList();
+        return new Pair<>(result, accumulator.comparisons());
     }
 
     @Override
-    public void or(String[] queryTerms) {
-        Logger.function("termAtATimeQueryOr", queryTerms);
-
+    public QueryResult or(String[] queryTerms) {
+        QueryMetrics.Trace trace = QueryMetrics.get().start(FUNCTION_OR);
         List<PostingList> queryTermsPostings = postingLists(queryTerms);
+        trace.stage(QueryMetrics.Stage.LOOKUP);
 
         if (!queryTermsPostings.isEmpty()) {
             StopWatch stopWatch = StopWatch.createStarted();
@@ -100,72 +122,56 @@ public class TermAtATime extends Index {
 
             Pair<PostingList, Integer> resultOptimized = orOptimized(queryTermsPostings);
             Integer optimizedComparisons = resultOptimized.second();
+            trace.stage(QueryMetrics.Stage.MERGE);
+            for (PostingList postings : queryTermsPostings) {
+                trace.scanned(2L * postings.size()); // both evaluations read every posting
+            }
 
-            logResult(stopWatch, result, comparisons, optimizedComparisons);
+            return trace.materialized(QueryResult.of(FUNCTION_OR, queryTerms, result, comparisons,
+                    optimizedComparisons, stopWatch));
         } else {
-            Logger.notFound();
+            return trace.finish(QueryResult.notFound(FUNCTION_OR, queryTerms));
         }
     }
 
 
     /**
-     * Performs optimized term-at-a-time OR evaluation by sorting the postings by size.
+     * Performs optimized term-at-a-time OR evaluation, ordering the fetched postings by increasing document
+     * frequency, their size.
      *
      * @param queryTermsPostings query terms postingsList in order of input
      * @return a pair containing merged Postings and the number of comparisons.
      */
     private Pair<PostingList, Integer> orOptimized(List<PostingList> queryTermsPostings) {
+        return or(bySize(queryTermsPostings));
+    }
+
+    /**
+     * @return a copy of the postings sorted by increasing size, ties in order of input
+     */
+    private static List<PostingList> bySize(List<PostingList> queryTermsPostings) {
         List<PostingList> copy = new ArrayList<>(queryTermsPostings);
-        copy.sort(Comparator.comparing(List::size, Comparator.naturalOrder()));
-        return or(copy);
+        copy.sort(Comparator.comparingInt(PostingList::size));
+        return copy;
     }
 
     /**
-     * Performs term-at-a-time OR evaluation.
+     * Performs term-at-a-time OR evaluation with a document accumulator, scanning every list once.
      *
      * @param queryTermsPostings query terms postingsList in order of input
      * @return a pair containing merged Postings and the number of comparisons.
      */
     private Pair<PostingList, Integer> or(List<PostingList> queryTermsPostings) {
-        PostingList result = new PostingList(queryTermsPostings.get(0));
-        int comparisons = 0;
-        for (int i = 1; i < queryTermsPostings.size(); ++i) {
-            PostingList tempPostingList = new PostingList(result); // intermediate result
-            List<Posting> append = new ArrayList<>(); // new documents to add to intermediate result
-
-            for (Posting posting : queryTermsPostings.get(i)) {
-                Iterator<Posting> iterator = tempPostingList.iterator();
-                boolean exists = false;
-
-                while (iterator.hasNext()) {
-                    Posting tempPosting = iterator.next();
-                    ++comparisons;
-                    if (posting.documentId() == tempPosting.documentId()) {
-                        exists = true;
-                        break;
-                    }
-                }
-                if (!exists) {
-                    append.add(posting); // current posting is not found in intermediate result, so we add it
-                }
-            }
-            tempPostingList.addAll(append);
-            result = new PostingList(tempPostingList);
+        int maximumSize = 0;
+        for (PostingList postings : queryTermsPostings) {
+            maximumSize += postings.size();
         }
-        return new Pair<>(result, comparisons);
-    }
-
-    private void logResult(StopWatch stopWatch, PostingList result, Integer comparisons, Integer optimizedComparisons) {
-        if (!result.isEmpty()) {
-            Logger.found(result.size());
-            Logger.comparisons(comparisons);
-            Logger.time(stopWatch.elapsedSeconds());
-            Logger.log(optimizedComparisons + " comparisons are made with optimization");
-            List<Integer> documentIds = result.documentIds();
-            documentIds.sort(Comparator.naturalOrder());
-            Logger.result(documentIds);
-        } else {
-            Logger.notFound();
+        Accumulator accumulator = new Accumulator(maximumSize);
+        for (PostingList postings : queryTermsPostings) {
+            for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next()) {
+                accumulator.add(cursor.documentId(), cursor.frequency());
+            }
         }
+        return new Pair<>(accumulator.collect(1), accumulator.comparisons());
     }
 }
@@ -0,0 +1,337 @@
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable term dictionary with its terms sorted by their UTF-8 bytes and front coded: terms are stored in blocks of
+ * {@link #BLOCK_SIZE}, the first term of a block in full and every other one as the length of the prefix it shares
+ * with the term before it plus the rest of its bytes. A lookup binary searches the first terms of the blocks and
+ * scans one block. Each term maps to its ordinal, the offset of its posting list in one array, so the dictionary
+ * holds no String or hash entry per term.
+ * <p>
+ * Besides exact lookups the sorted order answers prefix queries such as {@code perel*} and range enumeration, as
+ * ranges of ordinals.
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public final class TermDictionary extends AbstractMap<String, PostingList> {
+    public static final int BLOCK_SIZE = 16;
+
+    private static final Comparator<byte[]> UNSIGNED = Arrays::compareUnsigned;
+
+    private final byte[] data; // front-coded terms
+    private final int[] blockOffsets; // block b starts at data[blockOffsets[b]]
+    private final PostingList[] postings; // by ordinal
+    private final int maxTermBytes;
+    private volatile TermStatistics statistics; // built on first use
+
+    private TermDictionary(byte[] data, int[] blockOffsets, PostingList[] postings, int maxTermBytes) {
+        this.data = data;
+        this.blockOffsets = blockOffsets;
+        this.postings = postings;
+        this.maxTermBytes = maxTermBytes;
+    }
+
+    /**
+     * @param index term dictionary to copy, iterated once
+     * @return the same terms and posting lists in a front-coded dictionary
+     */
+    public static TermDictionary of(Map<String, PostingList> index) {
+        if (index instanceof TermDictionary) {
+            return (TermDictionary) index;
+        }
+        List<Map.Entry<byte[], PostingList>> entries = new ArrayList<>(index.size());
+        index.forEach((term, postings) -> entries.add(
+                new SimpleImmutableEntry<>(term.getBytes(StandardCharsets.UTF_8), postings)));
+        entries.sort(Map.Entry.comparingByKey(UNSIGNED));
+
+        byte[] data = new byte[64];
+        int[] blockOffsets = new int[(entries.size() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        PostingList[] postings = new PostingList[entries.size()];
+        int maxTermBytes = 0;
+        int offset = 0;
+        byte[] previous = new byte[0];
+        for (int ordinal = 0; ordinal < entries.size(); ordinal++) {
+            byte[] term = entries.get(ordinal).getKey();
+            postings[ordinal] = entries.get(ordinal).getValue();
+            maxTermBytes = Math.max(maxTermBytes, term.length);
+            int shared = 0;
+            if (ordinal % BLOCK_SIZE == 0) {
+                blockOffsets[ordinal / BLOCK_SIZE] = offset;
+            } else {
+                shared = Arrays.mismatch(previous, term);
+                if (shared < 0) {
+                    throw new IllegalArgumentException("Duplicate term " + new String(term, StandardCharsets.UTF_8));
+                }
+            }
+            if (offset + 10 + term.length - shared > data.length) {
+                data = Arrays.copyOf(data, Math.max(offset + 10 + term.length, data.length + (data.length >> 1)));
+            }
+            if (ordinal % BLOCK_SIZE != 0) {
+                offset = writeVInt(data, offset, shared);
+            }
+            offset = writeVInt(data, offset, term.length - shared);
+            System.arraycopy(term, shared, data, offset, term.length - shared);
+            offset += term.length - shared;
+            previous = term;
+        }
+        return new TermDictionary(Arrays.copyOf(data, offset), blockOffsets, postings, maxTermBytes);
+    }
+
+    @Override
+    public int size() {
+        return postings.length;
+    }
+
+    /**
+     * @return the ordinal of the term, or -1 when it is not in the dictionary
+     */
+    public int ordinal(String term) {
+        return Math.max(-1, search(term.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public String term(int ordinal) {
+        return new String(bytes(ordinal), StandardCharsets.UTF_8);
+    }
+
+    public PostingList postings(int ordinal) {
+        return postings[ordinal];
+    }
+
+    /**
+     * @return the statistics of every term, computed on first use by one pass over the posting lists
+     */
+    public TermStatistics statistics() {
+        TermStatistics statistics = this.statistics;
+        if (statistics == null) {
+            synchronized (this) {
+                statistics = this.statistics;
+                if (statistics == null) {
+                    this.statistics = statistics = new TermStatistics(this);
+                }
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the ordinals of the terms starting with the prefix, from the first up to the end exclusive
+     */
+    public Pair<Integer, Integer> prefix(String prefix) {
+        byte[] from = prefix.getBytes(StandardCharsets.UTF_8);
+        // the smallest byte string above every string that starts with the prefix, none if the prefix is all 0xFF
+        int length = from.length;
+        while (length > 0 && from[length - 1] == (byte) 0xFF) {
+            --length;
+        }
+        byte[] to = Arrays.copyOf(from, length);
+        if (length > 0) {
+            ++to[length - 1];
+        }
+        return new Pair<>(ceiling(from), length > 0 ? ceiling(to) : postings.length);
+    }
+
+    /**
+     * @param from first term of the range
+     * @param to   end of the range, exclusive
+     * @return the ordinals of the terms in the range, from the first up to the end exclusive
+     */
+    public Pair<Integer, Integer> range(String from, String to) {
+        int first = ceiling(from.getBytes(StandardCharsets.UTF_8));
+        return new Pair<>(first, Math.max(first, ceiling(to.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    /**
+     * @return the terms from one ordinal up to another, exclusive, in dictionary order
+     */
+    public List<String> terms(int from, int to) {
+        List<String> terms = new ArrayList<>(to - from);
+        for (int ordinal = from; ordinal < to; ordinal++) {
+            terms.add(term(ordinal));
+        }
+        return terms;
+    }
+
+    @Override
+    public PostingList get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int ordinal = ordinal((String) key);
+        return ordinal < 0 ? null : postings[ordinal];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, PostingList>> entrySet() {
+        return new AbstractSet<Entry<String, PostingList>>() {
+            @Override
+            public Iterator<Entry<String, PostingList>> iterator() {
+                return new Iterator<Entry<String, PostingList>>() {
+                    private final byte[] term = new byte[maxTermBytes];
+                    private int ordinal;
+                    private int offset;
+                    private int length;
+
+                    @Override
+                    public boolean hasNext() {
+                        return ordinal < postings.length;
+                    }
+
+                    @Override
+                    public Entry<String, PostingList> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        long decoded = decodeNext(ordinal, offset, term, length); // decodes sequentially
+                        offset = (int) (decoded >>> 32);
+                        length = (int) decoded;
+                        return new SimpleImmutableEntry<>(new String(term, 0, length, StandardCharsets.UTF_8),
+                                postings[ordinal++]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return postings.length;
+            }
+        };
+    }
+
+    /**
+     * @return approximate retained heap bytes of the dictionary on a 64-bit JVM with compressed oops, not counting
+     * the posting lists
+     */
+    public long heapBytes() {
+        return 32 + CompressedPostings.arrayBytes(data.length, 1)
+                + CompressedPostings.arrayBytes(blockOffsets.length, Integer.BYTES)
+                + CompressedPostings.arrayBytes(postings.length, 4);
+    }
+
+    /**
+     * @return the first ordinal whose term is at least the key, or the size when there is none
+     */
+    private int ceiling(byte[] key) {
+        int ordinal = search(key);
+        return ordinal >= 0 ? ordinal : -ordinal - 1;
+    }
+
+    /**
+     * @return the ordinal of the key when it is in the dictionary, otherwise -(ceiling + 1) like
+     * {@link Arrays#binarySearch(int[], int)}
+     */
+    private int search(byte[] key) {
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        int block = -1; // last block whose first term is at most the key
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int offset = blockOffsets[middle];
+            int length = (int) readVInt(data, offset);
+            int start = offset + vIntBytes(length);
+            int comparison = Arrays.compareUnsigned(data, start, start + length, key, 0, key.length);
+            if (comparison == 0) {
+                return middle * BLOCK_SIZE;
+            } else if (comparison < 0) {
+                block = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (block < 0) {
+            return -1;
+        }
+        byte[] term = new byte[maxTermBytes];
+        int ordinal = block * BLOCK_SIZE;
+        int end = Math.min(ordinal + BLOCK_SIZE, postings.length);
+        int offset = blockOffsets[block];
+        int length = 0;
+        for (; ordinal < end; ordinal++) {
+            long decoded = decodeNext(ordinal, offset, term, length);
+            offset = (int) (decoded >>> 32);
+            length = (int) decoded;
+            int comparison = Arrays.compareUnsigned(term, 0, length, key, 0, key.length);
+            if (comparison >= 0) {
+                return comparison == 0 ? ordinal : -ordinal - 1;
+            }
+        }
+        return -ordinal - 1; // first term of the next block is above the key
+    }
+
+    private byte[] bytes(int ordinal) {
+        byte[] term = new byte[maxTermBytes];
+        int offset = blockOffsets[ordinal / BLOCK_SIZE];
+        int length = 0;
+        for (int i = ordinal - ordinal % BLOCK_SIZE; i <= ordinal; i++) {
+            long decoded = decodeNext(i, offset, term, length);
+            offset = (int) (decoded >>> 32);
+            length = (int) decoded;
+        }
+        return Arrays.copyOf(term, length);
+    }
+
+    /**
+     * Decodes the term of an ordinal into the buffer holding the term before it.
+     *
+     * @param ordinal ordinal to decode, the first of a block or the one after the term in the buffer
+     * @param offset  offset of its bytes in the data
+     * @param term    buffer holding the previous term of the block
+     * @param length  length of the previous term
+     * @return the offset of the next term in the upper 32 bits and the length of this term in the lower 32 bits
+     */
+    private long decodeNext(int ordinal, int offset, byte[] term, int length) {
+        int shared = 0;
+        if (ordinal % BLOCK_SIZE != 0) {
+            shared = (int) readVInt(data, offset);
+            offset += vIntBytes(shared);
+        }
+        int suffix = (int) readVInt(data, offset);
+        offset += vIntBytes(suffix);
+        System.arraycopy(data, offset, term, shared, suffix);
+        return (long) (offset + suffix) << 32 | (shared + suffix);
+    }
+
+    private static int writeVInt(byte[] data, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            data[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static long readVInt(byte[] data, int offset) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[offset++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int vIntBytes(int value) {
+        int bytes = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            ++bytes;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-term statistics of a {@link TermDictionary} in primitive arrays indexed by term ordinal: document frequency,
+ * total and maximum term frequency, and the smallest and largest document ID. They are computed by one pass over
+ * every posting list, so evaluators can order and bound query terms without touching the lists again. The ordinals
+ * are also kept sorted by decreasing document frequency, ties in term order, which answers {@link #topK(int)} in
+ * O(k).
+ *
+ * @author Wasif (wasifale@buffalo.edu).
+ */
+public final class TermStatistics {
+    private final TermDictionary dictionary;
+    private final int[] documentFrequencies;
+    private final long[] totalTermFrequencies;
+    private final int[] maxTermFrequencies;
+    private final int[] minDocumentIds;
+    private final int[] maxDocumentIds;
+    private final int[] byDocumentFrequency; // ordinals, most frequent first
+
+    TermStatistics(TermDictionary dictionary) {
+        int terms = dictionary.size();
+        this.dictionary = dictionary;
+        this.documentFrequencies = new int[terms];
+        this.totalTermFrequencies = new long[terms];
+        this.maxTermFrequencies = new int[terms];
+        this.minDocumentIds = new int[terms];
+        this.maxDocumentIds = new int[terms];
+        for (int ordinal = 0; ordinal < terms; ordinal++) {
+            PostingList postings = dictionary.postings(ordinal);
+            long total = 0;
+            int max = 0;
+            int minDocumentId = Integer.MAX_VALUE;
+            int maxDocumentId = -1;
+            for (PostingList.Cursor cursor = postings.cursor(); !cursor.exhausted(); cursor.next()) {
+                total += cursor.frequency();
+                max = Math.max(max, cursor.frequency());
+                minDocumentId = Math.min(minDocumentId, cursor.documentId());
+                maxDocumentId = Math.max(maxDocumentId, cursor.documentId());
+            }
+            documentFrequencies[ordinal] = postings.size();
+            totalTermFrequencies[ordinal] = total;
+            maxTermFrequencies[ordinal] = max;
+            minDocumentIds[ordinal] = minDocumentId;
+            maxDocumentIds[ordinal] = maxDocumentId;
+        }
+        this.byDocumentFrequency = byDocumentFrequency(documentFrequencies);
+    }
+
+    /**
+     * Counting sort of the ordinals by decreasing document frequency, stable so ties stay in term order.
+     */
+    private static int[] byDocumentFrequency(int[] documentFrequencies) {
+        int max = 0;
+        for (int documentFrequency : documentFrequencies) {
+            max = Math.max(max, documentFrequency);
+        }
+        int[] starts = new int[max + 2];
+        for (int documentFrequency : documentFrequencies) {
+            ++starts[max - documentFrequency + 1];
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] ordinals = new int[documentFrequencies.length];
+        for (int ordinal = 0; ordinal < documentFrequencies.length; ordinal++) {
+            ordinals[starts[max - documentFrequencies[ordinal]]++] = ordinal;
+        }
+        return ordinals;
+    }
+
+    public int size() {
+        return documentFrequencies.length;
+    }
+
+    /**
+     * @return the document frequency of a term, 0 when it is not in the dictionary
+     */
+    public int documentFrequency(String term) {
+        int ordinal = dictionary.ordinal(term);
+        return ordinal < 0 ? 0 : documentFrequencies[ordinal];
+    }
+
+    public int documentFrequency(int ordinal) {
+        return documentFrequencies[ordinal];
+    }
+
+    public long totalTermFrequency(int ordinal) {
+        return totalTermFrequencies[ordinal];
+    }
+
+    public int maxTermFrequency(int ordinal) {
+        return maxTermFrequencies[ordinal];
+    }
+
+    /**
+     * @return the smallest document ID of a term, {@link Integer#MAX_VALUE} when its posting list is empty
+     */
+    public int minDocumentId(int ordinal) {
+        return minDocumentIds[ordinal];
+    }
+
+    /**
+     * @return the largest document ID of a term, -1 when its posting list is empty
+     */
+    public int maxDocumentId(int ordinal) {
+        return maxDocumentIds[ordinal];
+    }
+
+    /**
+     * @param k number of terms to return
+     * @return the k terms with the longest posting lists, ties in term order
+     */
+    public List<String> topK(int k) {
+        k = Math.max(0, Math.min(k, byDocumentFrequency.length));
+        List<String> terms = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            terms.add(dictionary.term(byDocumentFrequency[i]));
+        }
+        return terms;
+    }
+}